@@ -20,6 +20,10 @@ public class ApiStatus {
     "The JSON Object given in the Request Body is does not contain any valuable data");
   public static final ApiStatus HTTP_MODEL_NOT_FOUND = new ApiStatus(34, "The data you are looking for is not found");
   public static final ApiStatus HTTP_HEADER_INCORRECT = new ApiStatus(35, "Incorrect header passed");
+  public static final ApiStatus HTTP_ERROR_DEADLINE_EXCEEDED = new ApiStatus(36,
+    "Your request took too long and was cancelled, please try again later");
+  public static final ApiStatus HTTP_ERROR_TOO_MANY_REQUESTS = new ApiStatus(37,
+    "You made too many requests, please try again later");
 
   public static final ApiStatus HTTP_ERROR_INSERT_FAILED = new ApiStatus(40,
     "An unknown error occurred during inserting the object into the database");
@@ -58,6 +62,8 @@ public class ApiStatus {
     "source");
   public static final ApiStatus STATUS_DB_AUTO_COMMIT_FAILED = new ApiStatus(74, STATUS_DB_CONNECTION_FAILED);
   public static final ApiStatus STATUS_DB_DUPLICATE_RECORD = new ApiStatus(75, "The record you try to insert is already stored");
+  public static final ApiStatus STATUS_DB_DEADLINE_EXCEEDED = new ApiStatus(76,
+    "The request took too long and was cancelled");
 
   public static final ApiStatus AUTH_USER_PASSWORD_WRONG = new ApiStatus(80,
     "The combination of the username and password is incorrect");
@@ -89,6 +95,8 @@ public class ApiStatus {
   public static final ApiStatus REDIS_JWTTOKEN_EXPIRE_FAILED = new ApiStatus(113, "The JWTToken expire time could not" +
     " be set");
   public static final ApiStatus REDIS_JWTTOKEN_ALREADY_UPDATED = new ApiStatus(114, "The JWTToken is already updated");
+  public static final ApiStatus REDIS_JWTTOKEN_REVOKED = new ApiStatus(115, "Your JWTToken has been revoked");
+  public static final ApiStatus REDIS_JWTTOKEN_NO_ID = new ApiStatus(116, "Your JWTToken has no id (jti)");
 
   public static final ApiStatus HTTP_FIND_FIELDS_MISSING = new ApiStatus(120, "Fields needed to find the correct object are missing in the request");
 
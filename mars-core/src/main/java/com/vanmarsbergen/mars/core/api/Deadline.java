@@ -0,0 +1,82 @@
+package com.vanmarsbergen.mars.core.api;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+
+/**
+ * Deadline of a request, passed along with eventbus messages in the "deadline" header as epoch milliseconds.
+ *
+ * The deadline is an absolute time, so the clocks of clustered nodes are expected to be in sync (NTP). A deadline of
+ * 0 means the request has no deadline.
+ */
+public class Deadline {
+  public static final String HEADER = "deadline";
+
+  private Deadline() {
+  }
+
+  /**
+   * Deadline for a request that may take the given amount of milliseconds from now.
+   */
+  public static long after(long timeout) {
+    return System.currentTimeMillis() + timeout;
+  }
+
+  /**
+   * Read the deadline of an eventbus message.
+   *
+   * @return The deadline, or 0 when the message has no (valid) deadline header
+   */
+  public static long of(Message<?> msg) {
+    String deadline = msg.headers().get(HEADER);
+    if (deadline == null) {
+      return 0;
+    }
+
+    try {
+      return Long.parseLong(deadline);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Delivery options carrying the deadline, with the send timeout set to the time left so the sender stops waiting
+   * for a reply at the deadline as well.
+   */
+  public static DeliveryOptions deliveryOptions(long deadline) {
+    DeliveryOptions options = new DeliveryOptions();
+    if (deadline > 0) {
+      options
+        .addHeader(HEADER, String.valueOf(deadline))
+        .setSendTimeout(Math.max(1, remaining(deadline)));
+    }
+
+    return options;
+  }
+
+  public static boolean isExpired(long deadline) {
+    return deadline > 0 && remaining(deadline) <= 0;
+  }
+
+  /**
+   * Milliseconds left until the deadline, Long.MAX_VALUE without a deadline.
+   */
+  public static long remaining(long deadline) {
+    return deadline > 0 ? deadline - System.currentTimeMillis() : Long.MAX_VALUE;
+  }
+
+  /**
+   * The time left as JDBC query timeout, in whole seconds rounded up because JDBC doesn't support smaller timeouts.
+   *
+   * @return The timeout in seconds, 0 (no timeout) without a deadline
+   */
+  public static int queryTimeout(long deadline) {
+    if (deadline <= 0) {
+      return 0;
+    }
+
+    long remaining = Math.max(1, remaining(deadline));
+    return (int) Math.min(Integer.MAX_VALUE, (remaining + 999) / 1000);
+  }
+}
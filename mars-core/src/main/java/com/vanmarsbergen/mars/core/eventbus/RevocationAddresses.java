@@ -0,0 +1,19 @@
+package com.vanmarsbergen.mars.core.eventbus;
+
+/**
+ * Eventbus addresses of the JWT token revocation, served by the TokenRevocationVerticle of mars-data and used by the
+ * TokenRevocation of mars-web.
+ */
+public final class RevocationAddresses {
+  public static final String REVOKE = "redis.jwt.revoke";
+  public static final String IS_REVOKED = "redis.jwt.isRevoked";
+  public static final String REVOCATIONS = "redis.jwt.revocations";
+
+  /**
+   * Every revocation is published here as {"tokenId", "expiresAt"}, for all nodes to update their filter.
+   */
+  public static final String REVOKED = "redis.jwt.revoked";
+
+  private RevocationAddresses() {
+  }
+}
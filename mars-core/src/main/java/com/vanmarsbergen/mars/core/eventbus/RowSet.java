@@ -0,0 +1,130 @@
+package com.vanmarsbergen.mars.core.eventbus;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable result of a query: the column names and a row of values per result row, in column order.
+ *
+ * Because it can't change, the {@link RowSetCodec} hands the same instance to local consumers instead of copying it
+ * like a JsonArray. The row set takes ownership of the lists it is created with, they must not be modified afterwards.
+ *
+ * A columnar row set is sent between clustered nodes column by column, see {@link RowSetCodec}. The receiving node
+ * only decodes a column when one of its values is read.
+ */
+public final class RowSet {
+  private final List<String> columnNames;
+  private final List<JsonArray> results;
+  private final boolean columnar;
+  private final int size;
+  private final ColumnReader columnReader;
+  private final AtomicReferenceArray<Object[]> columns;
+
+  /**
+   * @param columnNames Names of the columns
+   * @param results     Values of every row, in the order of the columns
+   */
+  public RowSet(List<String> columnNames, List<JsonArray> results) {
+    this(columnNames, results, false);
+  }
+
+  /**
+   * @param columnNames Names of the columns
+   * @param results     Values of every row, in the order of the columns
+   * @param columnar    Send the row set in the columnar format between clustered nodes
+   */
+  public RowSet(List<String> columnNames, List<JsonArray> results, boolean columnar) {
+    this.columnNames = Collections.unmodifiableList(columnNames);
+    this.results = Collections.unmodifiableList(results);
+    this.columnar = columnar;
+    this.size = results.size();
+    this.columnReader = null;
+    this.columns = null;
+  }
+
+  /**
+   * Row set of which the columns are decoded by the reader on first use.
+   */
+  RowSet(List<String> columnNames, int size, ColumnReader columnReader) {
+    this.columnNames = Collections.unmodifiableList(columnNames);
+    this.results = null;
+    this.columnar = true;
+    this.size = size;
+    this.columnReader = columnReader;
+    this.columns = new AtomicReferenceArray<>(columnNames.size());
+  }
+
+  public List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  public int getColumnCount() {
+    return columnNames.size();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean isColumnar() {
+    return columnar;
+  }
+
+  public Object getValue(int row, int column) {
+    if (results != null) {
+      return results.get(row).getValue(column);
+    }
+
+    Object[] values = columns.get(column);
+    if (values == null) {
+      values = columnReader.read(column);
+      columns.set(column, values);
+    }
+
+    return values[row];
+  }
+
+  /**
+   * The row as a new JsonObject with a key per column.
+   */
+  public JsonObject getRow(int row) {
+    JsonObject item = new JsonObject();
+    for (int column = 0; column < columnNames.size(); column++) {
+      item.put(columnNames.get(column), getValue(row, column));
+    }
+
+    return item;
+  }
+
+  /**
+   * All rows as new JsonObjects, like ResultSet#getRows().
+   */
+  public List<JsonObject> getRows() {
+    List<JsonObject> rows = new ArrayList<>(size());
+    for (int row = 0; row < size(); row++) {
+      rows.add(getRow(row));
+    }
+
+    return rows;
+  }
+
+  /**
+   * All rows as a new JsonArray of JsonObjects, the reply of db.mysql.query.find without "rowSet".
+   */
+  public JsonArray toJsonArray() {
+    return new JsonArray(getRows());
+  }
+
+  interface ColumnReader {
+    Object[] read(int column);
+  }
+}
@@ -0,0 +1,429 @@
+package com.vanmarsbergen.mars.core.eventbus;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Eventbus codec of {@link RowSet}. Local consumers receive the sent instance itself, which is safe because a row
+ * set is immutable. Between clustered nodes the row set is sent in a binary format instead of JSON text with the
+ * column names in every row:
+ *
+ * - by row: the column names once, followed by every value as a one byte type and the value itself;
+ * - columnar ({@link RowSet#isColumnar()}): the names and types of the columns once, followed per column by a bitmap
+ * of the null values and the other values without type. The receiving node decodes a column on first use.
+ *
+ * Call {@link #register(Vertx)} before sending or receiving row sets.
+ */
+public class RowSetCodec implements MessageCodec<RowSet, RowSet> {
+  public static final String NAME = "rowset";
+
+  private static final byte FORMAT_ROWS = 1;
+  private static final byte FORMAT_COLUMNS = 2;
+
+  private static final byte TYPE_NULL = 0;
+  private static final byte TYPE_TRUE = 1;
+  private static final byte TYPE_FALSE = 2;
+  private static final byte TYPE_INT = 3;
+  private static final byte TYPE_LONG = 4;
+  private static final byte TYPE_FLOAT = 5;
+  private static final byte TYPE_DOUBLE = 6;
+  private static final byte TYPE_STRING = 7;
+  private static final byte TYPE_BINARY = 8;
+  private static final byte TYPE_JSON_OBJECT = 9;
+  private static final byte TYPE_JSON_ARRAY = 10;
+  private static final byte TYPE_MIXED = 11;
+  private static final byte TYPE_BOOLEAN = 12;
+
+  private static final RowSetCodec INSTANCE = new RowSetCodec();
+
+  /**
+   * Register the codec as default codec of {@link RowSet} on the eventbus of the Vert.x instance, unless it has one
+   * already. Call it when deploying a verticle, not per message.
+   */
+  public static void register(Vertx vertx) {
+    try {
+      vertx.eventBus().registerDefaultCodec(RowSet.class, INSTANCE);
+    } catch (IllegalStateException alreadyRegistered) {
+      // Registered by another verticle of the instance
+    }
+  }
+
+  @Override
+  public void encodeToWire(Buffer buffer, RowSet rowSet) {
+    int lengthPosition = buffer.length();
+    buffer.appendInt(0);
+
+    if (rowSet.isColumnar()) {
+      encodeColumns(buffer, rowSet);
+    } else {
+      encodeRows(buffer, rowSet);
+    }
+
+    buffer.setInt(lengthPosition, buffer.length() - lengthPosition - 4);
+  }
+
+  @Override
+  public RowSet decodeFromWire(int position, Buffer buffer) {
+    int length = buffer.getInt(position);
+    byte format = buffer.getByte(position + 4);
+
+    if (format == FORMAT_ROWS) {
+      return decodeRows(buffer, position + 5);
+    }
+
+    if (format == FORMAT_COLUMNS) {
+      return decodeColumns(buffer.getBuffer(position + 5, position + 4 + length));
+    }
+
+    throw new IllegalStateException("Unknown row set format " + format);
+  }
+
+  @Override
+  public RowSet transform(RowSet rowSet) {
+    return rowSet;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public byte systemCodecID() {
+    return -1;
+  }
+
+  private static void encodeRows(Buffer buffer, RowSet rowSet) {
+    buffer.appendByte(FORMAT_ROWS);
+
+    buffer.appendInt(rowSet.getColumnCount());
+    rowSet.getColumnNames().forEach(name -> appendString(buffer, name));
+
+    buffer.appendInt(rowSet.size());
+    for (int row = 0; row < rowSet.size(); row++) {
+      for (int column = 0; column < rowSet.getColumnCount(); column++) {
+        appendValue(buffer, rowSet.getValue(row, column));
+      }
+    }
+  }
+
+  private static RowSet decodeRows(Buffer buffer, int position) {
+    int[] pos = {position};
+
+    int columnCount = buffer.getInt(pos[0]);
+    pos[0] += 4;
+    List<String> columnNames = new ArrayList<>(columnCount);
+    for (int i = 0; i < columnCount; i++) {
+      columnNames.add(readString(buffer, pos));
+    }
+
+    int rowCount = buffer.getInt(pos[0]);
+    pos[0] += 4;
+    List<JsonArray> results = new ArrayList<>(rowCount);
+    for (int row = 0; row < rowCount; row++) {
+      List<Object> values = new ArrayList<>(columnCount);
+      for (int column = 0; column < columnCount; column++) {
+        values.add(readValue(buffer, pos));
+      }
+      results.add(new JsonArray(values));
+    }
+
+    return new RowSet(columnNames, results);
+  }
+
+  /**
+   * Writes the row and column count, then the name, type and data length of every column, then the data of every
+   * column: a bitmap with a bit set for every null value, followed by the other values.
+   */
+  private static void encodeColumns(Buffer buffer, RowSet rowSet) {
+    buffer.appendByte(FORMAT_COLUMNS);
+    buffer.appendInt(rowSet.size());
+    buffer.appendInt(rowSet.getColumnCount());
+
+    byte[] types = new byte[rowSet.getColumnCount()];
+    int[] lengthPositions = new int[rowSet.getColumnCount()];
+    for (int column = 0; column < rowSet.getColumnCount(); column++) {
+      types[column] = columnType(rowSet, column);
+      appendString(buffer, rowSet.getColumnNames().get(column));
+      buffer.appendByte(types[column]);
+      lengthPositions[column] = buffer.length();
+      buffer.appendInt(0);
+    }
+
+    for (int column = 0; column < rowSet.getColumnCount(); column++) {
+      int start = buffer.length();
+      appendColumn(buffer, rowSet, column, types[column]);
+      buffer.setInt(lengthPositions[column], buffer.length() - start);
+    }
+  }
+
+  private static RowSet decodeColumns(Buffer data) {
+    int[] pos = {0};
+    int rowCount = data.getInt(0);
+    int columnCount = data.getInt(4);
+    pos[0] = 8;
+
+    List<String> columnNames = new ArrayList<>(columnCount);
+    byte[] types = new byte[columnCount];
+    int[] lengths = new int[columnCount];
+    for (int column = 0; column < columnCount; column++) {
+      columnNames.add(readString(data, pos));
+      types[column] = data.getByte(pos[0]);
+      lengths[column] = data.getInt(pos[0] + 1);
+      pos[0] += 5;
+    }
+
+    int[] offsets = new int[columnCount];
+    for (int column = 0, offset = pos[0]; column < columnCount; offset += lengths[column++]) {
+      offsets[column] = offset;
+    }
+
+    return new RowSet(columnNames, rowCount, column -> readColumn(data, offsets[column], types[column], rowCount));
+  }
+
+  private static void appendColumn(Buffer buffer, RowSet rowSet, int column, byte type) {
+    byte[] nulls = new byte[(rowSet.size() + 7) / 8];
+    for (int row = 0; row < rowSet.size(); row++) {
+      if (rowSet.getValue(row, column) == null) {
+        nulls[row / 8] |= 1 << (row % 8);
+      }
+    }
+    buffer.appendBytes(nulls);
+
+    if (type == TYPE_BOOLEAN) {
+      byte[] values = new byte[(rowSet.size() + 7) / 8];
+      for (int row = 0; row < rowSet.size(); row++) {
+        if (Boolean.TRUE.equals(rowSet.getValue(row, column))) {
+          values[row / 8] |= 1 << (row % 8);
+        }
+      }
+      buffer.appendBytes(values);
+      return;
+    }
+
+    for (int row = 0; row < rowSet.size(); row++) {
+      Object value = rowSet.getValue(row, column);
+      if (value == null) {
+        continue;
+      }
+
+      switch (type) {
+        case TYPE_INT:
+          buffer.appendInt(((Number) value).intValue());
+          break;
+        case TYPE_LONG:
+          buffer.appendLong(((Number) value).longValue());
+          break;
+        case TYPE_FLOAT:
+          buffer.appendFloat((Float) value);
+          break;
+        case TYPE_DOUBLE:
+          buffer.appendDouble((Double) value);
+          break;
+        case TYPE_BINARY:
+          buffer.appendInt(((byte[]) value).length).appendBytes((byte[]) value);
+          break;
+        case TYPE_JSON_OBJECT:
+          appendString(buffer, ((JsonObject) value).encode());
+          break;
+        case TYPE_JSON_ARRAY:
+          appendString(buffer, ((JsonArray) value).encode());
+          break;
+        case TYPE_STRING:
+          appendString(buffer, value.toString());
+          break;
+        default:
+          appendValue(buffer, value);
+      }
+    }
+  }
+
+  private static Object[] readColumn(Buffer data, int offset, byte type, int rowCount) {
+    Object[] values = new Object[rowCount];
+    int[] pos = {offset + (rowCount + 7) / 8};
+
+    for (int row = 0; row < rowCount; row++) {
+      if ((data.getByte(offset + row / 8) & 1 << (row % 8)) != 0) {
+        continue;
+      }
+
+      switch (type) {
+        case TYPE_BOOLEAN:
+          values[row] = (data.getByte(pos[0] + row / 8) & 1 << (row % 8)) != 0;
+          break;
+        case TYPE_INT:
+          values[row] = data.getInt(pos[0]);
+          pos[0] += 4;
+          break;
+        case TYPE_LONG:
+          values[row] = data.getLong(pos[0]);
+          pos[0] += 8;
+          break;
+        case TYPE_FLOAT:
+          values[row] = data.getFloat(pos[0]);
+          pos[0] += 4;
+          break;
+        case TYPE_DOUBLE:
+          values[row] = data.getDouble(pos[0]);
+          pos[0] += 8;
+          break;
+        case TYPE_BINARY:
+          int length = data.getInt(pos[0]);
+          pos[0] += 4 + length;
+          values[row] = data.getBytes(pos[0] - length, pos[0]);
+          break;
+        case TYPE_JSON_OBJECT:
+          values[row] = new JsonObject(readString(data, pos));
+          break;
+        case TYPE_JSON_ARRAY:
+          values[row] = new JsonArray(readString(data, pos));
+          break;
+        case TYPE_STRING:
+          values[row] = readString(data, pos);
+          break;
+        default:
+          values[row] = readValue(data, pos);
+      }
+    }
+
+    return values;
+  }
+
+  /**
+   * The type shared by all values of the column, or TYPE_MIXED for values of different types. Integers are widened to longs when the column contains both.
+   */
+  private static byte columnType(RowSet rowSet, int column) {
+    byte type = TYPE_NULL;
+    for (int row = 0; row < rowSet.size(); row++) {
+      byte valueType = valueType(rowSet.getValue(row, column));
+      if (valueType == TYPE_TRUE || valueType == TYPE_FALSE) {
+        valueType = TYPE_BOOLEAN;
+      }
+
+      if (valueType == TYPE_NULL || valueType == type) {
+        continue;
+      }
+
+      if (type == TYPE_NULL) {
+        type = valueType;
+      } else if (type == TYPE_INT && valueType == TYPE_LONG || type == TYPE_LONG && valueType == TYPE_INT) {
+        type = TYPE_LONG;
+      } else {
+        return TYPE_MIXED;
+      }
+    }
+
+    return type;
+  }
+
+  private static byte valueType(Object value) {
+    if (value == null) {
+      return TYPE_NULL;
+    } else if (value instanceof Boolean) {
+      return (Boolean) value ? TYPE_TRUE : TYPE_FALSE;
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return TYPE_INT;
+    } else if (value instanceof Long) {
+      return TYPE_LONG;
+    } else if (value instanceof Float) {
+      return TYPE_FLOAT;
+    } else if (value instanceof Double) {
+      return TYPE_DOUBLE;
+    } else if (value instanceof byte[]) {
+      return TYPE_BINARY;
+    } else if (value instanceof JsonObject) {
+      return TYPE_JSON_OBJECT;
+    } else if (value instanceof JsonArray) {
+      return TYPE_JSON_ARRAY;
+    }
+
+    return TYPE_STRING;
+  }
+
+  private static void appendValue(Buffer buffer, Object value) {
+    byte type = valueType(value);
+    buffer.appendByte(type);
+
+    switch (type) {
+      case TYPE_INT:
+        buffer.appendInt(((Number) value).intValue());
+        break;
+      case TYPE_LONG:
+        buffer.appendLong((Long) value);
+        break;
+      case TYPE_FLOAT:
+        buffer.appendFloat((Float) value);
+        break;
+      case TYPE_DOUBLE:
+        buffer.appendDouble((Double) value);
+        break;
+      case TYPE_BINARY:
+        buffer.appendInt(((byte[]) value).length).appendBytes((byte[]) value);
+        break;
+      case TYPE_JSON_OBJECT:
+        appendString(buffer, ((JsonObject) value).encode());
+        break;
+      case TYPE_JSON_ARRAY:
+        appendString(buffer, ((JsonArray) value).encode());
+        break;
+      case TYPE_STRING:
+        appendString(buffer, value.toString());
+        break;
+      default:
+    }
+  }
+
+  private static Object readValue(Buffer buffer, int[] pos) {
+    byte type = buffer.getByte(pos[0]++);
+    switch (type) {
+      case TYPE_NULL:
+        return null;
+      case TYPE_TRUE:
+        return true;
+      case TYPE_FALSE:
+        return false;
+      case TYPE_INT:
+        pos[0] += 4;
+        return buffer.getInt(pos[0] - 4);
+      case TYPE_LONG:
+        pos[0] += 8;
+        return buffer.getLong(pos[0] - 8);
+      case TYPE_FLOAT:
+        pos[0] += 4;
+        return buffer.getFloat(pos[0] - 4);
+      case TYPE_DOUBLE:
+        pos[0] += 8;
+        return buffer.getDouble(pos[0] - 8);
+      case TYPE_BINARY:
+        int length = buffer.getInt(pos[0]);
+        pos[0] += 4 + length;
+        return buffer.getBytes(pos[0] - length, pos[0]);
+      case TYPE_JSON_OBJECT:
+        return new JsonObject(readString(buffer, pos));
+      case TYPE_JSON_ARRAY:
+        return new JsonArray(readString(buffer, pos));
+      case TYPE_STRING:
+        return readString(buffer, pos);
+      default:
+        throw new IllegalStateException("Unknown row set value type " + type);
+    }
+  }
+
+  private static void appendString(Buffer buffer, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    buffer.appendInt(bytes.length).appendBytes(bytes);
+  }
+
+  private static String readString(Buffer buffer, int[] pos) {
+    int length = buffer.getInt(pos[0]);
+    pos[0] += 4 + length;
+    return buffer.getString(pos[0] - length, pos[0], "UTF-8");
+  }
+}
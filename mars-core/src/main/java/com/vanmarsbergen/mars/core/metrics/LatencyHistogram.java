@@ -0,0 +1,102 @@
+package com.vanmarsbergen.mars.core.metrics;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Histogram of latencies in microseconds with log-linear buckets, like HdrHistogram: every power of two range is
+ * split in 32 buckets, so reported percentiles are within about 3% of the recorded value while the histogram takes a
+ * fixed amount of memory however many values are recorded.
+ *
+ * Recording is not synchronized, use a histogram from a single thread (e.g. the context of a verticle).
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 40;
+
+  private final long[] counts = new long[(MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS];
+  private long count = 0;
+  private long sum = 0;
+  private long min = Long.MAX_VALUE;
+  private long max = 0;
+
+  /**
+   * Record a duration measured with {@link System#nanoTime()}.
+   */
+  public void recordNanos(long nanos) {
+    record(nanos / 1000);
+  }
+
+  /**
+   * Record a latency in microseconds.
+   */
+  public void record(long micros) {
+    long value = Math.max(0, micros);
+    counts[index(value)]++;
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * The latency in microseconds below which the given percentage of the recorded latencies fall.
+   *
+   * @param percentile Percentile between 0 and 100
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(max, highestValue(i));
+      }
+    }
+
+    return max;
+  }
+
+  /**
+   * Returns count, min, mean, max and the 50th, 90th, 99th and 99.9th percentile in microseconds.
+   */
+  public JsonObject toJson() {
+    return new JsonObject()
+      .put("count", count)
+      .put("min", count == 0 ? 0 : min)
+      .put("mean", count == 0 ? 0 : sum / count)
+      .put("max", max)
+      .put("p50", getValueAtPercentile(50))
+      .put("p90", getValueAtPercentile(90))
+      .put("p99", getValueAtPercentile(99))
+      .put("p999", getValueAtPercentile(99.9));
+  }
+
+  private static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(value));
+    int subBucket = (int) (Math.min(value >>> (exponent - SUB_BUCKET_BITS), 2 * SUB_BUCKETS - 1) - SUB_BUCKETS);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long highestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
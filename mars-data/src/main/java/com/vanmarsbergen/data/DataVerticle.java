@@ -1,16 +1,52 @@
 package com.vanmarsbergen.mars.data;
 
 import com.vanmarsbergen.mars.core.api.ApiStatus;
+import com.vanmarsbergen.mars.core.api.Deadline;
+import com.vanmarsbergen.mars.core.eventbus.RowSetCodec;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 
 public class DataVerticle extends AbstractVerticle {
   protected Logger logger;
 
+  /**
+   * Registers the {@link RowSetCodec} once per deployment, before any start method of a subclass runs.
+   */
+  @Override
+  public void init(Vertx vertx, Context context) {
+    super.init(vertx, context);
+    RowSetCodec.register(vertx);
+  }
+
+  /**
+   * Send a request to the storage layer on behalf of the message, with the {@link Deadline} of the message. The
+   * storage layer uses the time left as query timeout and the reply handler fails with a timeout at the deadline.
+   */
+  protected <T> void relay(Message<?> msg, String address, Object request,
+                           Handler<AsyncResult<Message<T>>> replyHandler) {
+    vertx.eventBus().send(address, request, Deadline.deliveryOptions(Deadline.of(msg)), replyHandler);
+  }
+
+  /**
+   * Relay the reply of the storage layer to the message, or fail it when there are no records. The body is passed on
+   * as is, so a {@link com.vanmarsbergen.mars.core.eventbus.RowSet} reaches a local consumer without being copied.
+   * A request that exceeded its deadline fails with {@link ApiStatus#STATUS_DB_DEADLINE_EXCEEDED}.
+   */
   protected void validateMySQLAndReply(Message msg, AsyncResult<Message<Object>> reply) {
     if (reply.failed()) {
+      if (isDeadlineExceeded(reply.cause())) {
+        msg.fail(ApiStatus.STATUS_DB_DEADLINE_EXCEEDED.statusCode(), ApiStatus.STATUS_DB_DEADLINE_EXCEEDED.toString());
+        return;
+      }
+
       msg.fail(ApiStatus.FAILED_FIND.statusCode(), ApiStatus.FAILED_FIND.toString());
       return;
     }
@@ -22,4 +58,23 @@ public class DataVerticle extends AbstractVerticle {
 
     msg.reply(reply.result().body());
   }
+
+  /**
+   * Find a page of rows with keyset pagination and reply it to the message: a JsonObject with the "rows" and the
+   * "nextCursor" and "previousCursor". The request needs the "bucket" and takes the "cursor", "limit", "sortColumn",
+   * "descending" and "where" of db.mysql.query.findPage.
+   */
+  protected void findPage(Message<?> msg, JsonObject request) {
+    this.<Object>relay(msg, "db.mysql.query.findPage", request, reply -> validateMySQLAndReply(msg, reply));
+  }
+
+  private static boolean isDeadlineExceeded(Throwable cause) {
+    if (!(cause instanceof ReplyException)) {
+      return false;
+    }
+
+    ReplyException replyException = (ReplyException) cause;
+    return replyException.failureType() == ReplyFailure.TIMEOUT ||
+      replyException.failureCode() == ApiStatus.STATUS_DB_DEADLINE_EXCEEDED.statusCode();
+  }
 }
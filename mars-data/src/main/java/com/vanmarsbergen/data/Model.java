@@ -5,6 +5,7 @@
 package com.vanmarsbergen.mars.data;
 
 import com.vanmarsbergen.mars.data.impl.ValidationImpl;
+import com.vanmarsbergen.mars.data.mysql.MySQL;
 import io.vertx.core.json.JsonObject;
 import org.jooq.Field;
 import org.jooq.Query;
@@ -36,7 +37,8 @@ public interface Model {
   String getObjectType();
 
   /**
-   * Returns a map with exception rules
+   * Returns a map with exception rules. The rules are read once per model class, from its first instance, and
+   * shared by all instances, so they must not depend on the state of an instance.
    *
    * @return HashMap with Key value pair of column name and an array of ValidationImpl rules
    */
@@ -79,7 +81,8 @@ public interface Model {
   Integer getInteger(String key);
 
   /**
-   * Get the whole raw data set.
+   * Get the whole raw data set. Models with a compiled schema (see ModelImpl#compileSchema) return a copy, so
+   * changing the returned object doesn't change the model; use {@link #put} or {@link #set} for that.
    * @return
    */
   JsonObject getAll();
@@ -118,4 +121,18 @@ public interface Model {
   Query getSelectQuery();
 
   Query getInsertQuery();
+
+  /**
+   * Returns the select query as request for db.mysql.query.find, {"query", "queryParams"}.
+   */
+  default JsonObject getSelectRequest() {
+    return MySQL.prepareRequest(getSelectQuery());
+  }
+
+  /**
+   * Returns the insert query as request for db.mysql.query.update, {"query", "queryParams"}.
+   */
+  default JsonObject getInsertRequest() {
+    return MySQL.prepareRequest(getInsertQuery());
+  }
 }
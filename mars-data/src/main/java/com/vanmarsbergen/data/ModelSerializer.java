@@ -0,0 +1,25 @@
+package com.vanmarsbergen.mars.data;
+
+import com.vanmarsbergen.mars.data.impl.ModelSerializerImpl;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.Collection;
+
+/**
+ * Writes the API structure of models, the same as {@link Model#toApi(ModelOptions)}, straight into a Buffer with a
+ * streaming JSON generator, without building JsonObjects first. The Buffer can be ended as data by the WebResponse of
+ * mars-web.
+ */
+public interface ModelSerializer {
+
+  static ModelSerializer create() {
+    return new ModelSerializerImpl();
+  }
+
+  Buffer toBuffer(Model model, ModelOptions modelOptions);
+
+  /**
+   * Writes the models as a JSON array.
+   */
+  Buffer toBuffer(Collection<? extends Model> models, ModelOptions modelOptions);
+}
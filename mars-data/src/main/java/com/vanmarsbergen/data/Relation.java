@@ -0,0 +1,117 @@
+package com.vanmarsbergen.mars.data;
+
+import com.vanmarsbergen.mars.data.impl.ModelImpl;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Declares a relation of a model, so the related models can be loaded for many models at once by the
+ * {@link com.vanmarsbergen.mars.data.mysql.RelationLoader}. Models return their relations by name from
+ * {@link ModelImpl#relations()}; declare them once per model class, in a static field.
+ */
+public final class Relation {
+  private enum Kind {BELONGS_TO, HAS_ONE, HAS_MANY}
+
+  private final Kind kind;
+  private final String name;
+  private final Supplier<? extends ModelImpl> factory;
+  private final String foreignKey;
+  private final String tableName;
+  private final String primaryKey;
+
+  private Relation(Kind kind, String name, Supplier<? extends ModelImpl> factory, String foreignKey) {
+    ModelImpl related = factory.get();
+    this.kind = kind;
+    this.name = name;
+    this.factory = factory;
+    this.foreignKey = foreignKey;
+    this.tableName = related.getTableName();
+    this.primaryKey = related.getPrimaryKey();
+  }
+
+  /**
+   * The model has the primary key of the related model in its column "foreignKey".
+   */
+  public static Relation belongsTo(String name, Supplier<? extends ModelImpl> factory, String foreignKey) {
+    return new Relation(Kind.BELONGS_TO, name, factory, foreignKey);
+  }
+
+  /**
+   * One related model has the primary key of the model in its column "foreignKey".
+   */
+  public static Relation hasOne(String name, Supplier<? extends ModelImpl> factory, String foreignKey) {
+    return new Relation(Kind.HAS_ONE, name, factory, foreignKey);
+  }
+
+  /**
+   * Many related models have the primary key of the model in their column "foreignKey".
+   */
+  public static Relation hasMany(String name, Supplier<? extends ModelImpl> factory, String foreignKey) {
+    return new Relation(Kind.HAS_MANY, name, factory, foreignKey);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getForeignKey() {
+    return foreignKey;
+  }
+
+  /**
+   * Table of the related model.
+   */
+  public String getTableName() {
+    return tableName;
+  }
+
+  /**
+   * Column of the related model that is looked up: its primary key when the model belongs to it, or else the foreign
+   * key.
+   */
+  public String getLookupColumn() {
+    return kind == Kind.BELONGS_TO ? primaryKey : foreignKey;
+  }
+
+  /**
+   * Column of the model that holds the key of the related models: the foreign key when the model belongs to it, or
+   * else the primary key of the model.
+   */
+  public String getKeyColumn(ModelImpl model) {
+    return kind == Kind.BELONGS_TO ? foreignKey : model.getPrimaryKey();
+  }
+
+  public boolean isBelongsTo() {
+    return kind == Kind.BELONGS_TO;
+  }
+
+  public boolean isToMany() {
+    return kind == Kind.HAS_MANY;
+  }
+
+  public ModelImpl newModel() {
+    return factory.get();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Relation)) {
+      return false;
+    }
+
+    Relation relation = (Relation) o;
+    return kind == relation.kind &&
+      name.equals(relation.name) &&
+      foreignKey.equals(relation.foreignKey) &&
+      tableName.equals(relation.tableName);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(kind, name, foreignKey, tableName);
+  }
+}
@@ -0,0 +1,80 @@
+package com.vanmarsbergen.mars.data;
+
+import com.vanmarsbergen.mars.data.exception.ValidationException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The violations of the validation rules of a model, all of them instead of only the first. A valid model gets the
+ * shared {@link #VALID} result, so validating a valid model doesn't allocate.
+ */
+public final class ValidationResult {
+  public static final ValidationResult VALID = new ValidationResult(Collections.emptyList());
+
+  private final List<Violation> violations;
+
+  private ValidationResult(List<Violation> violations) {
+    this.violations = violations;
+  }
+
+  /**
+   * Add a violation to the result, returns a new result when it is {@link #VALID}.
+   */
+  public static ValidationResult add(ValidationResult result, String column, String message) {
+    if (result == null || result == VALID) {
+      result = new ValidationResult(new ArrayList<>());
+    }
+
+    result.violations.add(new Violation(column, message));
+    return result;
+  }
+
+  public boolean isValid() {
+    return violations.isEmpty();
+  }
+
+  public List<Violation> getViolations() {
+    return Collections.unmodifiableList(violations);
+  }
+
+  /**
+   * An exception with the message of the first violation and this result.
+   */
+  public ValidationException toException() {
+    return new ValidationException(isValid() ? "Valid" : violations.get(0).getMessage(), this);
+  }
+
+  /**
+   * The violations as [{"column", "message"}], like for the errors of an API response.
+   */
+  public JsonArray toJson() {
+    JsonArray json = new JsonArray();
+    violations.forEach(violation -> json.add(new JsonObject()
+      .put("column", violation.getColumn())
+      .put("message", violation.getMessage())));
+
+    return json;
+  }
+
+  public static final class Violation {
+    private final String column;
+    private final String message;
+
+    private Violation(String column, String message) {
+      this.column = column;
+      this.message = message;
+    }
+
+    public String getColumn() {
+      return column;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+  }
+}
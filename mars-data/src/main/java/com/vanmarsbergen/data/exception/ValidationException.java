@@ -1,6 +1,10 @@
 package com.vanmarsbergen.mars.data.exception;
 
+import com.vanmarsbergen.mars.data.ValidationResult;
+
 public class ValidationException extends Exception {
+  private ValidationResult result;
+
   public ValidationException() {
       super();
   }
@@ -8,4 +12,16 @@ public class ValidationException extends Exception {
   public ValidationException(String message) {
       super(message);
   }
+
+  public ValidationException(String message, ValidationResult result) {
+      super(message);
+      this.result = result;
+  }
+
+  /**
+   * All violations of the validated model, or null when a single value was validated.
+   */
+  public ValidationResult getResult() {
+    return result;
+  }
 }
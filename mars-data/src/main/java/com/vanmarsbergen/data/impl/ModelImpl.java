@@ -1,7 +1,11 @@
 package com.vanmarsbergen.mars.data.impl;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.vanmarsbergen.mars.data.Model;
 import com.vanmarsbergen.mars.data.ModelOptions;
+import com.vanmarsbergen.mars.data.ModelSerializer;
+import com.vanmarsbergen.mars.data.Relation;
+import com.vanmarsbergen.mars.data.ValidationResult;
 import com.vanmarsbergen.mars.data.exception.ValidationException;
 import com.vanmarsbergen.mars.data.mysql.MySQL;
 import io.vertx.core.json.JsonArray;
@@ -9,6 +13,8 @@ import io.vertx.core.json.JsonObject;
 import org.jooq.Field;
 import org.jooq.Query;
 
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.*;
 
 import static org.jooq.impl.DSL.field;
@@ -24,6 +30,10 @@ public abstract class ModelImpl implements Model {
   private HashMap<String, Model> relationsToOne = new HashMap<>();
   private HashMap<String, List> relationsToMany = new HashMap<>();
   private boolean empty = true;
+  private ModelSchema schema;
+  private Object[] values;
+  private BitSet changedSlots;
+  private JsonObject extraColumns;
 
   public ModelImpl() {
   }
@@ -36,6 +46,37 @@ public abstract class ModelImpl implements Model {
     this.columns = columns;
   }
 
+  /**
+   * Keep the values in slots of the compiled {@link ModelSchema} of this class instead of the columns JsonObject,
+   * call it in the constructor after the columns are set. The getters and setters work the same, but {@link #getAll()}
+   * returns a copy of the values and the columns field isn't used anymore.
+   */
+  protected void compileSchema() {
+    this.schema = ModelSchema.of(this, columns, primaryKey, ignoredColumnsOnInsert, insertPrimaryKeyInDB);
+    this.values = new Object[schema.size()];
+    this.changedSlots = new BitSet(schema.size());
+
+    for (int slot = 0; slot < schema.size(); slot++) {
+      values[slot] = columns.getValue(schema.name(slot));
+    }
+    changedColumns.forEach(name -> {
+      int slot = schema.slot(name);
+      if (slot > -1) {
+        changedSlots.set(slot);
+      }
+    });
+
+    this.columns = null;
+    this.changedColumns = null;
+  }
+
+  /**
+   * The compiled schema of this model, or null when it keeps its values in the columns JsonObject.
+   */
+  public ModelSchema getSchema() {
+    return schema;
+  }
+
   protected void addRelation(Model model) {
     if (model != null && !isRelationAdded(model.getObjectType())) {
       this.relationsToOne.put(model.getObjectType(), model);
@@ -48,6 +89,42 @@ public abstract class ModelImpl implements Model {
     }
   }
 
+  /**
+   * Set the related model of a relation by name, replacing the one already set.
+   */
+  public void putRelation(String name, Model model) {
+    this.relationsToMany.remove(name);
+    this.relationsToOne.put(name, model);
+  }
+
+  /**
+   * Set the related models of a relation by name, replacing the ones already set.
+   */
+  public void putRelation(String name, List models) {
+    this.relationsToOne.remove(name);
+    this.relationsToMany.put(name, models);
+  }
+
+  /**
+   * The relations of this model by name, which can be loaded by the
+   * {@link com.vanmarsbergen.mars.data.mysql.RelationLoader}. None by default.
+   */
+  public Map<String, Relation> relations() {
+    return Collections.emptyMap();
+  }
+
+  public String getPrimaryKey() {
+    return primaryKey;
+  }
+
+  public Map<String, Model> getRelationsToOne() {
+    return relationsToOne;
+  }
+
+  public Map<String, List> getRelationsToMany() {
+    return relationsToMany;
+  }
+
   private boolean isRelationAdded(String objectType) {
     return relationsToOne.containsKey(objectType) || relationsToMany.containsKey(objectType);
   }
@@ -100,13 +177,64 @@ public abstract class ModelImpl implements Model {
         .put("relations", relations);
     }
 
-    apiResponse.put(primaryKey, columns.getInteger(primaryKey, null));
-    JsonObject columnsToApi = columns;
+    apiResponse.put(primaryKey, getInteger(primaryKey));
+    JsonObject columnsToApi = schema != null ? getAll() : columns.copy();
     columnsToApi.remove(primaryKey);
 
     return apiResponse.put("attributes", columnsToApi);
   }
 
+  /**
+   * Writes the same structure as {@link #toApi(ModelOptions)} to the generator, see {@link ModelSerializer}.
+   */
+  public void writeApi(JsonGenerator generator, ModelOptions modelOptions) throws IOException {
+    generator.writeStartObject();
+
+    if (modelOptions.isRelationEnabled()) {
+      ModelOptions relationOptions = modelOptions.isDeepRelationEnabled()
+        ? ModelOptions.create().enableRelations()
+        : ModelOptions.create();
+
+      generator.writeObjectFieldStart("relations");
+      for (Map.Entry<String, Model> relation : relationsToOne.entrySet()) {
+        generator.writeFieldName(relation.getKey());
+        ModelSerializerImpl.write(generator, relation.getValue(), relationOptions);
+      }
+      for (Map.Entry<String, List> relation : relationsToMany.entrySet()) {
+        generator.writeArrayFieldStart(relation.getKey());
+        for (Object model : relation.getValue()) {
+          ModelSerializerImpl.write(generator, (Model) model, relationOptions);
+        }
+        generator.writeEndArray();
+      }
+      generator.writeEndObject();
+    }
+
+    generator.writeObjectField(primaryKey, getInteger(primaryKey));
+    generator.writeObjectFieldStart("attributes");
+    if (schema != null) {
+      for (int slot = 0; slot < values.length; slot++) {
+        if (slot != schema.getPrimaryKeySlot()) {
+          generator.writeObjectField(schema.name(slot), values[slot]);
+        }
+      }
+      if (extraColumns != null) {
+        for (Map.Entry<String, Object> column : extraColumns.getMap().entrySet()) {
+          generator.writeObjectField(column.getKey(), column.getValue());
+        }
+      }
+    } else {
+      for (Map.Entry<String, Object> column : columns.getMap().entrySet()) {
+        if (!Objects.equals(column.getKey(), primaryKey)) {
+          generator.writeObjectField(column.getKey(), column.getValue());
+        }
+      }
+    }
+    generator.writeEndObject();
+
+    generator.writeEndObject();
+  }
+
   public boolean isEmpty() {
     return empty;
   }
@@ -119,6 +247,17 @@ public abstract class ModelImpl implements Model {
 
     this.empty = false;
 
+    if (schema != null) {
+      data.forEach(entry -> {
+        int slot = schema.slot(entry.getKey());
+        if (slot > -1) {
+          changedSlots.set(slot);
+          values[slot] = normalize(entry.getValue());
+        }
+      });
+      return this;
+    }
+
     data.forEach(entry -> {
       if (columns.containsKey(entry.getKey())) {
         changedColumns.add(entry.getKey());
@@ -131,6 +270,10 @@ public abstract class ModelImpl implements Model {
 
   @Override
   public Model put(String key, Object value) {
+    if (schema != null) {
+      return putSlot(key, normalize(value));
+    }
+
     if (columns.getValue(key) == value) {
       return this;
     }
@@ -146,6 +289,28 @@ public abstract class ModelImpl implements Model {
     return this;
   }
 
+  private Model putSlot(String key, Object value) {
+    int slot = schema.slot(key);
+    if (slot < 0) {
+      if (extraColumns == null) {
+        extraColumns = new JsonObject();
+      }
+      if (extraColumns.getValue(key) == value && extraColumns.containsKey(key)) {
+        return this;
+      }
+      extraColumns.put(key, value);
+    } else {
+      if (values[slot] == value) {
+        return this;
+      }
+      values[slot] = value;
+      changedSlots.set(slot);
+    }
+    this.empty = false;
+
+    return this;
+  }
+
   @Override
   public Map<Field<?>, Object> toDatabase() {
     return toDatabase(false);
@@ -154,6 +319,18 @@ public abstract class ModelImpl implements Model {
   public Map<Field<?>, Object> toDatabase(boolean patchMode) {
     Map<Field<?>, Object> map = new HashMap<>();
 
+    if (schema != null) {
+      for (int slot = 0; slot < values.length; slot++) {
+        if (schema.isInsertable(slot) && (!patchMode || changedSlots.get(slot))) {
+          map.put(field(schema.name(slot)), values[slot]);
+        }
+      }
+      if (extraColumns != null) {
+        extraColumns.forEach(entry -> map.put(field(entry.getKey()), entry.getValue()));
+      }
+      return map;
+    }
+
     columns.forEach(entry -> {
       if (
         (!(Objects.equals(entry.getKey(), primaryKey) && !insertPrimaryKeyInDB)) &&
@@ -169,6 +346,10 @@ public abstract class ModelImpl implements Model {
 
   @Override
   public Object getValue(String key) {
+    if (schema != null) {
+      return wrap(slotValue(key));
+    }
+
     if (!columns.containsKey(key)) {
       return null;
     }
@@ -178,6 +359,11 @@ public abstract class ModelImpl implements Model {
 
   @Override
   public String getString(String key) {
+    if (schema != null) {
+      CharSequence value = (CharSequence) slotValue(key);
+      return value == null ? null : value.toString();
+    }
+
     if (!columns.containsKey(key)) {
       return null;
     }
@@ -187,6 +373,14 @@ public abstract class ModelImpl implements Model {
 
   @Override
   public Integer getInteger(String key) {
+    if (schema != null) {
+      Number value = (Number) slotValue(key);
+      if (value == null || value instanceof Integer) {
+        return (Integer) value;
+      }
+      return value.intValue();
+    }
+
     if (!columns.containsKey(key)) {
       return null;
     }
@@ -196,16 +390,67 @@ public abstract class ModelImpl implements Model {
 
   @Override
   public JsonObject getAll() {
-    return columns;
+    if (schema == null) {
+      return columns;
+    }
+
+    JsonObject all = new JsonObject();
+    for (int slot = 0; slot < values.length; slot++) {
+      all.put(schema.name(slot), values[slot]);
+    }
+    if (extraColumns != null) {
+      all.mergeIn(extraColumns);
+    }
+
+    return all;
+  }
+
+  private Object slotValue(String key) {
+    int slot = schema.slot(key);
+    if (slot > -1) {
+      return values[slot];
+    }
+
+    return extraColumns == null ? null : extraColumns.getMap().get(key);
+  }
+
+  /**
+   * Store values like the columns JsonObject does: character sequences as strings, and types JSON can't hold, like a
+   * Date, refused with an IllegalStateException right away instead of when the model is encoded. Other values than
+   * strings, numbers and booleans are checked by putting them in a JsonObject.
+   */
+  private static Object normalize(Object value) {
+    if (value == null || value instanceof String || value instanceof Boolean ||
+      value instanceof Number && !(value instanceof BigDecimal)) {
+      return value;
+    }
+
+    return new JsonObject().put("value", value).getMap().get("value");
+  }
+
+  /**
+   * Return values like the columns JsonObject does, maps and lists as JsonObject and JsonArray.
+   */
+  @SuppressWarnings("unchecked")
+  private static Object wrap(Object value) {
+    if (value instanceof Map) {
+      return new JsonObject((Map<String, Object>) value);
+    }
+    if (value instanceof List) {
+      return new JsonArray((List<?>) value);
+    }
+
+    return value;
   }
 
   @Override
   public Query getSelectQuery() {
-    if (columns.getInteger(primaryKey) != null && columns.getInteger(primaryKey) != 0) {
+    Integer id = getInteger(primaryKey);
+    if (id != null && id != 0) {
       return MySQL.JooqQuery
         .select(field("*"))
         .from(table(getTableName()))
-        .where(field(primaryKey).equal(columns.getInteger(primaryKey)));
+        .where(field(primaryKey).equal(id));
     }
 
     return MySQL.JooqQuery
@@ -234,6 +479,122 @@ public abstract class ModelImpl implements Model {
       .where(field(this.primaryKey).equal(getInteger(this.primaryKey)));
   }
 
+  @Override
+  public JsonObject getSelectRequest() {
+    Integer id = getInteger(primaryKey);
+    if (id != null && id != 0) {
+      String query = SqlTemplates.of(getClass()).get("select", () -> MySQL.JooqQuery
+        .select(field("*"))
+        .from(table(getTableName()))
+        .where(field(primaryKey).equal(0))
+        .getSQL());
+      return request(query, new JsonArray().add(id));
+    }
+
+    String query = SqlTemplates.of(getClass()).get("selectAll", () -> MySQL.JooqQuery
+      .select(field("*"))
+      .from(table(getTableName()))
+      .getSQL());
+    return request(query, new JsonArray());
+  }
+
+  @Override
+  public JsonObject getInsertRequest() {
+    return writeRequest("insert", false);
+  }
+
+  public JsonObject getUpdateRequest() {
+    return writeRequest("update", true);
+  }
+
+  public JsonObject getPatchUpdateRequest() {
+    return writeRequest("update", true);
+  }
+
+  /**
+   * The columns written by the insert request, in the order of its parameters.
+   */
+  public List<String> getInsertColumns() {
+    List<String> names = new ArrayList<>();
+    writtenColumns(false, names, new ArrayList<>());
+    return names;
+  }
+
+  /**
+   * The insert or update request of the columns {@link #toDatabase(boolean)} writes, with the SQL rendered once per
+   * model class and set of columns, see {@link SqlTemplates}.
+   */
+  private JsonObject writeRequest(String kind, boolean patchMode) {
+    List<String> names = new ArrayList<>();
+    List<Object> params = new ArrayList<>();
+    BitSet written = writtenColumns(patchMode, names, params);
+    Object key = written != null ? Arrays.asList(kind, written) : Arrays.asList(kind, names);
+
+    boolean update = kind.equals("update");
+    if (update) {
+      params.add(getInteger(primaryKey));
+    }
+    JsonArray queryParams = new JsonArray(params);
+    if (names.isEmpty()) {
+      return MySQL.prepareRequest(update ? getUpdateQuery() : getInsertQuery());
+    }
+
+    String query = SqlTemplates.of(getClass()).get(key, () -> {
+      Map<Field<?>, Object> fields = new LinkedHashMap<>();
+      names.forEach(name -> fields.put(field(name), 0));
+      if (update) {
+        return MySQL.JooqQuery.update(table(getTableName())).set(fields).where(field(primaryKey).equal(0)).getSQL();
+      }
+      return MySQL.JooqQuery.insertInto(table(getTableName())).set(fields).getSQL();
+    });
+
+    return request(query, queryParams);
+  }
+
+  /**
+   * Add the names and values of the columns {@link #toDatabase(boolean)} writes. Returns the written slots when all
+   * columns are in the compiled schema, or else null.
+   */
+  private BitSet writtenColumns(boolean patchMode, List<String> names, List<Object> params) {
+    if (schema == null) {
+      columns.getMap().forEach((name, value) -> {
+        if (
+          (!(Objects.equals(name, primaryKey) && !insertPrimaryKeyInDB)) &&
+            (ignoredColumnsOnInsert.indexOf(name) == -1) &&
+            (!patchMode || changedColumns.indexOf(name) > -1)
+          ) {
+          names.add(name);
+          params.add(value);
+        }
+      });
+      return null;
+    }
+
+    BitSet written = new BitSet(values.length);
+    for (int slot = 0; slot < values.length; slot++) {
+      if (schema.isInsertable(slot) && (!patchMode || changedSlots.get(slot))) {
+        written.set(slot);
+        names.add(schema.name(slot));
+        params.add(values[slot]);
+      }
+    }
+    if (extraColumns != null) {
+      extraColumns.getMap().forEach((name, value) -> {
+        names.add(name);
+        params.add(value);
+      });
+      return null;
+    }
+
+    return written;
+  }
+
+  private static JsonObject request(String query, JsonArray queryParams) {
+    return new JsonObject()
+      .put("query", query)
+      .put("queryParams", queryParams);
+  }
+
   public List<Query> getRelationInsertQueries() {
     List<Query> querySet = new LinkedList<>();
     for (Map.Entry<String, List> relation : relationsToMany.entrySet()) {
@@ -254,19 +615,73 @@ public abstract class ModelImpl implements Model {
   }
 
   public void validate() throws ValidationException {
-    for (ValidationImpl validation : rules()) {
-      validation.validate(getValue(validation.getColumnName()));
+    ValidationResult result = check(false);
+    if (!result.isValid()) {
+      throw result.toException();
     }
   }
 
   public void validateChanged() throws ValidationException {
-    List<String> columnsToValidate = changedColumns;
-    columnsToValidate.remove(columnsToValidate.indexOf(primaryKey));
+    ValidationResult result = check(true);
+    if (!result.isValid()) {
+      throw result.toException();
+    }
+  }
+
+  /**
+   * Check all rules of the model, see {@link #rules()}.
+   *
+   * @return All violations, {@link ValidationResult#VALID} when there are none
+   */
+  public ValidationResult check() {
+    return check(false);
+  }
+
+  /**
+   * Check the rules of the changed columns, except the primary key.
+   *
+   * @return All violations, {@link ValidationResult#VALID} when there are none
+   */
+  public ValidationResult checkChanged() {
+    return check(true);
+  }
+
+  private ValidationResult check(boolean changedOnly) {
+    ModelRules modelRules = ModelRules.of(this, schema);
+    ValidationResult result = ValidationResult.VALID;
+
+    for (int i = 0; i < modelRules.rules.length; i++) {
+      ValidationImpl rule = modelRules.rules[i];
+      int slot = modelRules.slots[i];
+      Object value;
+
+      if (schema != null && slot > -1) {
+        if (changedOnly && (!changedSlots.get(slot) || slot == schema.getPrimaryKeySlot())) {
+          continue;
+        }
+        value = wrap(values[slot]);
+      } else {
+        String column = rule.getColumnName();
+        if (changedOnly && (Objects.equals(column, primaryKey) || !isChanged(column))) {
+          continue;
+        }
+        value = getValue(column);
+      }
 
-    for (ValidationImpl validation : rules()) {
-      if (columnsToValidate.contains(validation.getColumnName())) {
-        validation.validate(getValue(validation.getColumnName()));
+      String violation = rule.check(value);
+      if (violation != null) {
+        result = ValidationResult.add(result, rule.getColumnName(), violation);
       }
     }
+
+    return result;
+  }
+
+  private boolean isChanged(String column) {
+    if (schema == null) {
+      return changedColumns.contains(column);
+    }
+
+    return extraColumns != null && extraColumns.containsKey(column);
   }
 }
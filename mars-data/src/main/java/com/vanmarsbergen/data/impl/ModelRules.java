@@ -0,0 +1,29 @@
+package com.vanmarsbergen.mars.data.impl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The validation rules of a model class, taken from {@link ModelImpl#rules()} once per class, with the slots of their
+ * columns when the class has a compiled {@link ModelSchema}.
+ */
+final class ModelRules {
+  private static final Map<Class<?>, ModelRules> RULES = new ConcurrentHashMap<>();
+
+  final ValidationImpl[] rules;
+  final int[] slots;
+
+  private ModelRules(Set<ValidationImpl> rules, ModelSchema schema) {
+    this.rules = rules.toArray(new ValidationImpl[rules.size()]);
+    this.slots = new int[this.rules.length];
+
+    for (int i = 0; i < this.rules.length; i++) {
+      slots[i] = schema == null ? -1 : schema.slot(this.rules[i].getColumnName());
+    }
+  }
+
+  static ModelRules of(ModelImpl model, ModelSchema schema) {
+    return RULES.computeIfAbsent(model.getClass(), modelClass -> new ModelRules(model.rules(), schema));
+  }
+}
@@ -0,0 +1,86 @@
+package com.vanmarsbergen.mars.data.impl;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The columns of a model class compiled to slots, so a {@link ModelImpl} can keep its values in an array and its
+ * changed columns in a {@link BitSet} instead of a JsonObject and a list, see {@link ModelImpl#compileSchema()}.
+ *
+ * A schema is compiled once per model class from the columns, primary key and ignored columns of the first instance,
+ * so these must be the same for every instance of the class.
+ */
+public final class ModelSchema {
+  private static final Map<Class<?>, ModelSchema> SCHEMAS = new ConcurrentHashMap<>();
+
+  private final String[] names;
+  private final Map<String, Integer> slots;
+  private final int primaryKeySlot;
+  private final BitSet insertable = new BitSet();
+
+  private ModelSchema(JsonObject columns, String primaryKey, Iterable<String> ignoredOnInsert,
+                      boolean insertPrimaryKey) {
+    this.names = columns.fieldNames().toArray(new String[columns.size()]);
+    this.slots = new HashMap<>(names.length * 2);
+
+    for (int slot = 0; slot < names.length; slot++) {
+      slots.put(names[slot], slot);
+      insertable.set(slot, insertPrimaryKey || !Objects.equals(names[slot], primaryKey));
+    }
+    ignoredOnInsert.forEach(name -> {
+      Integer slot = slots.get(name);
+      if (slot != null) {
+        insertable.clear(slot);
+      }
+    });
+
+    Integer slot = slots.get(primaryKey);
+    this.primaryKeySlot = slot == null ? -1 : slot;
+  }
+
+  /**
+   * The schema of the class of the model, compiled from the model when it is the first of its class.
+   */
+  static ModelSchema of(ModelImpl model, JsonObject columns, String primaryKey, Iterable<String> ignoredOnInsert,
+                        boolean insertPrimaryKey) {
+    return SCHEMAS.computeIfAbsent(
+      model.getClass(),
+      modelClass -> new ModelSchema(columns, primaryKey, ignoredOnInsert, insertPrimaryKey)
+    );
+  }
+
+  /**
+   * Returns the slot of the column, or -1 when the model has no such column.
+   */
+  public int slot(String name) {
+    Integer slot = slots.get(name);
+    return slot == null ? -1 : slot;
+  }
+
+  public String name(int slot) {
+    return names[slot];
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  /**
+   * Returns the slot of the primary key, or -1 when it isn't a column.
+   */
+  public int getPrimaryKeySlot() {
+    return primaryKeySlot;
+  }
+
+  /**
+   * Whether the column is written by inserts: not the primary key, unless it is inserted, and not ignored on insert.
+   */
+  public boolean isInsertable(int slot) {
+    return insertable.get(slot);
+  }
+}
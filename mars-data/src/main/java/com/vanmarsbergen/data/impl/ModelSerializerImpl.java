@@ -0,0 +1,80 @@
+package com.vanmarsbergen.mars.data.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.vanmarsbergen.mars.data.Model;
+import com.vanmarsbergen.mars.data.ModelOptions;
+import com.vanmarsbergen.mars.data.ModelSerializer;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.EncodeException;
+import io.vertx.core.json.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+
+public class ModelSerializerImpl implements ModelSerializer {
+
+  @Override
+  public Buffer toBuffer(Model model, ModelOptions modelOptions) {
+    Buffer buffer = Buffer.buffer(256);
+    try (JsonGenerator generator = generator(buffer)) {
+      write(generator, model, modelOptions);
+    } catch (IOException e) {
+      throw new EncodeException("Failed to encode " + model.getObjectType() + ": " + e.getMessage());
+    }
+
+    return buffer;
+  }
+
+  @Override
+  public Buffer toBuffer(Collection<? extends Model> models, ModelOptions modelOptions) {
+    Buffer buffer = Buffer.buffer(256 * Math.max(1, models.size()));
+    try (JsonGenerator generator = generator(buffer)) {
+      generator.writeStartArray();
+      for (Model model : models) {
+        write(generator, model, modelOptions);
+      }
+      generator.writeEndArray();
+    } catch (IOException e) {
+      throw new EncodeException("Failed to encode models: " + e.getMessage());
+    }
+
+    return buffer;
+  }
+
+  /**
+   * Models other than ModelImpl don't know the generator, their API structure is encoded instead.
+   */
+  static void write(JsonGenerator generator, Model model, ModelOptions modelOptions) throws IOException {
+    if (model instanceof ModelImpl) {
+      ((ModelImpl) model).writeApi(generator, modelOptions);
+    } else {
+      generator.writeObject(model.toApi(modelOptions));
+    }
+  }
+
+  /**
+   * A generator of the Vert.x object mapper, so values like JsonObject are written the same as by encode().
+   */
+  private static JsonGenerator generator(Buffer buffer) throws IOException {
+    return Json.mapper.getFactory().createGenerator(new BufferOutputStream(buffer));
+  }
+
+  private static class BufferOutputStream extends OutputStream {
+    private final Buffer buffer;
+
+    private BufferOutputStream(Buffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+      buffer.appendByte((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      buffer.appendBytes(b, off, len);
+    }
+  }
+}
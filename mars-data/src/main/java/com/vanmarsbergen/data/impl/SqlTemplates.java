@@ -0,0 +1,43 @@
+package com.vanmarsbergen.mars.data.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The rendered SQL of the queries of a model class, by the kind of query and the columns it writes, so saving a model
+ * only binds its values instead of building and rendering a jOOQ query.
+ *
+ * At most {@link #MAX_TEMPLATES} templates are kept per class, patch updates could write any combination of columns.
+ */
+final class SqlTemplates {
+  static final int MAX_TEMPLATES = 256;
+
+  private static final Map<Class<?>, SqlTemplates> TEMPLATES = new ConcurrentHashMap<>();
+
+  private final Map<Object, String> templates = new ConcurrentHashMap<>();
+
+  private SqlTemplates() {
+  }
+
+  static SqlTemplates of(Class<?> modelClass) {
+    return TEMPLATES.computeIfAbsent(modelClass, key -> new SqlTemplates());
+  }
+
+  /**
+   * The template of the key, rendered when it isn't known yet.
+   */
+  String get(Object key, Supplier<String> render) {
+    String template = templates.get(key);
+    if (template != null) {
+      return template;
+    }
+
+    template = render.get();
+    if (templates.size() < MAX_TEMPLATES) {
+      templates.putIfAbsent(key, template);
+    }
+
+    return template;
+  }
+}
@@ -3,21 +3,31 @@ package com.vanmarsbergen.mars.data.impl;
 import com.vanmarsbergen.mars.data.Validation;
 import com.vanmarsbergen.mars.data.exception.ValidationException;
 
-import javax.mail.internet.AddressException;
-import javax.mail.internet.InternetAddress;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Objects;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static com.vanmarsbergen.mars.data.Validation.TYPE_STRING;
 
+/**
+ * A validation rule of a column. The checks are prepared when the rule is built, the type as a constant and the enum
+ * options as a hash set, so {@link #check(Object)} doesn't allocate unless the value is invalid.
+ */
 public class ValidationImpl implements Validation {
+  private static final int STRING = 0;
+  private static final int BOOLEAN = 1;
+  private static final int NUMBER = 2;
+  private static final int ENUM = 3;
+
   private String columnName;
   private boolean required = false;
   private int minLength = 0;
   private int maxLength = 0;
   private String type = TYPE_STRING;
+  private int typeCode = STRING;
   private Object[] enumOptions;
+  private Set<Object> enumSet;
   private Object defaultValue;
   private boolean isEmail = false;
 
@@ -25,76 +35,124 @@ public class ValidationImpl implements Validation {
     this.columnName = columnName;
   }
 
-  private void validateRequired(String data) throws ValidationException {
-    if (required && (data == null || data.isEmpty())) {
-      throw new ValidationException(String.format("Column %s is required and may not be empty", columnName));
+  private String checkStringLength(String data) {
+    if (data.isEmpty()) {
+      return null;
     }
-  }
 
-  private void validateRequired(Object data) throws ValidationException {
-    if (required && data == null) {
-      throw new ValidationException(String.format("Column %s is required and may not be empty", columnName));
+    if (minLength > 0 && data.length() < minLength) {
+      return String.format("Column %s has a minimum length of %d", columnName, minLength);
     }
+
+    if (maxLength > 0 && data.length() > maxLength) {
+      return String.format("Column %s has a maximum length of %d", columnName, maxLength);
+    }
+
+    return null;
   }
 
-  private void validateEmail(Object data) throws ValidationException {
-    if (isEmail && data != null) {
-      try {
-        InternetAddress emailAddress = new InternetAddress((String) data);
-        emailAddress.validate();
-      } catch (AddressException e) {
-        throw new ValidationException(String.format("Column %s should be an email address and it's not", columnName));
-      }
+  private String checkType(Object data) {
+    switch (typeCode) {
+      case STRING:
+      case BOOLEAN:
+        if (typeCode == STRING ? data instanceof String : data instanceof Boolean) {
+          return null;
+        }
+        return String.format(
+          "Column %s should be a %s, instead it is: %s", columnName, type, data.getClass().getSimpleName()
+        );
+      case NUMBER:
+        if (isInteger(data)) {
+          return null;
+        }
+        return String.format(
+          "Column %s should be a Number, instead it is: %s", columnName, data.getClass().getSimpleName()
+        );
+      default:
+        if (enumSet.contains(data)) {
+          return null;
+        }
+        return String.format(
+          "Column %s is not allowed, only the following options are allowed: %s",
+          columnName,
+          Arrays.stream(enumOptions).map(String::valueOf).collect(Collectors.joining(", "))
+        );
     }
   }
 
-  private void validateStringLength(String data) throws ValidationException {
-    if (data == null || data.isEmpty()) {
-      return;
+  /**
+   * Whether the value is an integer in the range of an int, also when it is given as text.
+   */
+  private static boolean isInteger(Object data) {
+    if (data instanceof Integer || data instanceof Short || data instanceof Byte) {
+      return true;
+    }
+    if (data instanceof Long) {
+      long value = (Long) data;
+      return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
     }
 
-    if (minLength > 0 && data.length() < minLength) {
-      throw new ValidationException(String.format("Column %s has a minimum length of %d", columnName, minLength));
+    return isInteger(data.toString());
+  }
+
+  private static boolean isInteger(String text) {
+    int length = text.length();
+    int start = length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+') ? 1 : 0;
+    if (start == length) {
+      return false;
     }
 
-    if (maxLength > 0 && data.length() > maxLength) {
-      throw new ValidationException(String.format("Column %s has a maximum length of %d", columnName, maxLength));
+    long value = 0;
+    for (int i = start; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9' || value > Integer.MAX_VALUE) {
+        return false;
+      }
+      value = value * 10 + (c - '0');
     }
+
+    return text.charAt(0) == '-' ? -value >= Integer.MIN_VALUE : value <= Integer.MAX_VALUE;
   }
 
-  private void validateType(Object data) throws ValidationException {
-    if (data == null) {
-      return;
+  /**
+   * Whether the text is an email address: a local part of atoms separated by dots, an @ and a domain of labels
+   * separated by dots.
+   */
+  private static boolean isEmailAddress(String text) {
+    int at = text.lastIndexOf('@');
+    if (at < 1 || at == text.length() - 1) {
+      return false;
     }
 
-    if (Objects.equals(type, TYPE_STRING) && !data.getClass().getSimpleName().equals(TYPE_STRING) || Objects.equals(type, TYPE_BOOLEAN) && !data.getClass().getSimpleName().equals(TYPE_BOOLEAN)) {
-      throw new ValidationException(String.format("Column %s should be a %s, instead it is: %s", columnName, type, data.getClass().getSimpleName()));
-    } else if (Objects.equals(type, TYPE_NUMBER)) {
-      try {
-        Integer dataNumber = Integer.parseInt(data.toString());
-      } catch (NumberFormatException exception) {
-        throw new ValidationException(String.format("Column %s should be a Number, instead it is: %s", columnName, data.getClass().getSimpleName()));
+    char previous = '.';
+    for (int i = 0; i < at; i++) {
+      char c = text.charAt(i);
+      if (c == '.' ? previous == '.' : !isAtomCharacter(c)) {
+        return false;
       }
-    } else if (Objects.equals(type, TYPE_ENUM)) {
-      List enumOptionsList = Arrays.asList(enumOptions);
-      if (!enumOptionsList.contains(data)) {
-
-        StringBuilder enumOptionsListString = new StringBuilder();
+      previous = c;
+    }
+    if (previous == '.') {
+      return false;
+    }
 
-        for (Object n : enumOptions) {
-          enumOptionsListString.append(n).append(", ");
-        }
-        enumOptionsListString.deleteCharAt(enumOptionsListString.length() - 2);
-
-        throw new ValidationException(
-          String.format(
-            "Column %s is not allowed, only the following options are allowed: %s",
-            columnName,
-            enumOptionsListString.toString().trim()
-          )
-        );
+    previous = '.';
+    for (int i = at + 1; i < text.length(); i++) {
+      char c = text.charAt(i);
+      boolean valid = c == '.'
+        ? previous != '.' && previous != '-'
+        : c == '-' ? previous != '.' : Character.isLetterOrDigit(c);
+      if (!valid) {
+        return false;
       }
+      previous = c;
     }
+
+    return previous != '.' && previous != '-';
+  }
+
+  private static boolean isAtomCharacter(char c) {
+    return Character.isLetterOrDigit(c) || "!#$%&'*+/=?^_`{|}~-".indexOf(c) > -1;
   }
 
   public ValidationImpl required() {
@@ -114,22 +172,27 @@ public class ValidationImpl implements Validation {
 
   public ValidationImpl isBoolean() {
     this.type = TYPE_BOOLEAN;
+    this.typeCode = BOOLEAN;
     return this;
   }
 
   public ValidationImpl isString() {
     this.type = TYPE_STRING;
+    this.typeCode = STRING;
     return this;
   }
 
   public ValidationImpl isNumber() {
     this.type = TYPE_NUMBER;
+    this.typeCode = NUMBER;
     return this;
   }
 
   public ValidationImpl isEnum(Object... options) {
     this.type = TYPE_ENUM;
+    this.typeCode = ENUM;
     this.enumOptions = options;
+    this.enumSet = new HashSet<>(Arrays.asList(options));
 
     return this;
   }
@@ -141,17 +204,33 @@ public class ValidationImpl implements Validation {
   }
 
   public void validate(Object data) throws ValidationException {
-    Object value = this.defaultValue;
-    if (data != null) {
-      value = data;
+    String violation = check(data);
+    if (violation != null) {
+      throw new ValidationException(violation);
+    }
+  }
+
+  /**
+   * Check the value, or the default value when it is null.
+   *
+   * @return The message of the first violated check, or null when the value is valid
+   */
+  public String check(Object data) {
+    Object value = data != null ? data : this.defaultValue;
+
+    if (value == null) {
+      return required ? String.format("Column %s is required and may not be empty", columnName) : null;
     }
 
-    validateRequired(value);
-    if (Objects.equals(type, TYPE_STRING) && value != null) {
-      validateStringLength(value.toString());
+    String violation = typeCode == STRING ? checkStringLength(value.toString()) : null;
+    if (violation == null) {
+      violation = checkType(value);
     }
-    validateType(value);
-    validateEmail(value);
+    if (violation == null && isEmail && !(value instanceof String && isEmailAddress((String) value))) {
+      violation = String.format("Column %s should be an email address and it's not", columnName);
+    }
+
+    return violation;
   }
 
   public String getColumnName() {
@@ -160,6 +239,7 @@ public class ValidationImpl implements Validation {
 
   public ValidationImpl email() {
     this.type = TYPE_STRING;
+    this.typeCode = STRING;
     this.isEmail = true;
 
     return this;
@@ -0,0 +1,171 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.UpdateResult;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts groups of rows, each with a single row INSERT template rewritten to multi-row INSERTs, in order and in one
+ * transaction. Rows can reference the generated key of a row of an earlier group, so children are inserted with the
+ * keys of their parents:
+ *
+ * {"inserts": [
+ *   {"query": "insert into projects (name) values (?)", "rows": [["Mars"]]},
+ *   {"query": "insert into tags (project_id, name) values (?, ?)", "rows": [[null, "red"]],
+ *    "refs": [{"row": 0, "param": 0, "key": [0, 0]}]}
+ * ], "multiRowInsertSize": 1000}
+ *
+ * where every reference in "refs" sets the parameter at index "param" of row "row" to the generated key of row
+ * [group, row] once it is inserted. References are kept apart from the rows, so any value, also a JSON object, can
+ * be inserted as is.
+ *
+ * The driver returns the keys of a multi-row INSERT as insertId + i * auto_increment_increment for the i-th row, so
+ * the keys are only right when the rows get consecutive ids: plain INSERTs into a table with an AUTO_INCREMENT key,
+ * with innodb_autoinc_lock_mode 0 or 1, or 2 when no other session inserts into the table at the same time.
+ */
+public class BulkInsert extends TransactionalUpdate {
+  private final int[] firstStatements;
+  private final int[] maxRows;
+  private final Map<Integer, List<KeyReference>> references;
+
+  private BulkInsert(JsonArray queries, JsonArray queryParams, int[] firstStatements, int[] maxRows,
+                     Map<Integer, List<KeyReference>> references) {
+    super(queries, queryParams);
+    this.firstStatements = firstStatements;
+    this.maxRows = maxRows;
+    this.references = references;
+  }
+
+  /**
+   * Parse a bulk insert request.
+   *
+   * @throws IllegalArgumentException When a query is not a single row INSERT, a row has the wrong amount of
+   *                                  parameters, or a reference is invalid or refers to a row that isn't inserted
+   *                                  before it
+   */
+  public static BulkInsert fromRequest(JsonObject request, int defaultMultiRowInsertSize) {
+    JsonArray inserts = request.getJsonArray("inserts", new JsonArray());
+    int multiRowInsertSize = request.getInteger("multiRowInsertSize", defaultMultiRowInsertSize);
+    JsonArray queries = new JsonArray();
+    JsonArray queryParams = new JsonArray();
+    int[] firstStatements = new int[inserts.size()];
+    int[] maxRows = new int[inserts.size()];
+    int[] rowCounts = new int[inserts.size()];
+    Map<Integer, List<KeyReference>> references = new HashMap<>();
+
+    for (int group = 0; group < inserts.size(); group++) {
+      JsonObject insert = inserts.getJsonObject(group);
+      MultiRowInsert template = MultiRowInsert.parse(insert.getString("query"));
+      if (template == null || template.hasSuffix()) {
+        throw new IllegalArgumentException("Not a single row INSERT: " + insert.getString("query"));
+      }
+
+      JsonArray rows = insert.getJsonArray("rows", new JsonArray());
+      List<JsonArray> rowParams = new ArrayList<>(rows.size());
+      for (int row = 0; row < rows.size(); row++) {
+        rowParams.add(rows.getJsonArray(row));
+      }
+
+      firstStatements[group] = queries.size();
+      maxRows[group] = template.getMaxRows(multiRowInsertSize);
+      rowCounts[group] = rows.size();
+      template.flatten(rowParams, maxRows[group]).forEach(params -> {
+        queries.add(template.getQuery(template.getRowCount(params)));
+        queryParams.add(params);
+      });
+
+      JsonArray refs = insert.getJsonArray("refs", new JsonArray());
+      for (int i = 0; i < refs.size(); i++) {
+        JsonObject ref = refs.getJsonObject(i);
+        checkReference(ref, group, rowCounts, template.getParamsPerRow());
+
+        int row = ref.getInteger("row");
+        int statement = firstStatements[group] + row / maxRows[group];
+        int param = row % maxRows[group] * template.getParamsPerRow() + ref.getInteger("param");
+        JsonArray key = ref.getJsonArray("key");
+        references.computeIfAbsent(statement, index -> new ArrayList<>())
+          .add(new KeyReference(param, key.getInteger(0), key.getInteger(1)));
+      }
+    }
+
+    return new BulkInsert(queries, queryParams, firstStatements, maxRows, references);
+  }
+
+  /**
+   * The generated keys of every group, in the order of its rows.
+   */
+  public JsonArray getKeys(List<UpdateResult> results) {
+    JsonArray keys = new JsonArray();
+    for (int group = 0; group < firstStatements.length; group++) {
+      int end = group + 1 < firstStatements.length ? firstStatements[group + 1] : results.size();
+      JsonArray groupKeys = new JsonArray();
+      for (int statement = firstStatements[group]; statement < end; statement++) {
+        groupKeys.addAll(results.get(statement).getKeys());
+      }
+      keys.add(groupKeys);
+    }
+
+    return keys;
+  }
+
+  @Override
+  protected JsonArray params(int index, List<UpdateResult> results) throws SQLException {
+    JsonArray params = super.params(index, results);
+    List<KeyReference> statementReferences = references.get(index);
+    if (statementReferences == null) {
+      return params;
+    }
+
+    Object[] resolved = new Object[params.size()];
+    for (int i = 0; i < resolved.length; i++) {
+      resolved[i] = params.getValue(i);
+    }
+    for (KeyReference reference : statementReferences) {
+      JsonArray keys = results.get(firstStatements[reference.group] + reference.row / maxRows[reference.group])
+        .getKeys();
+      if (reference.row % maxRows[reference.group] >= keys.size()) {
+        throw new SQLException("No generated key for row " + reference.row + " of insert " + reference.group);
+      }
+      resolved[reference.param] = keys.getValue(reference.row % maxRows[reference.group]);
+    }
+
+    return new JsonArray(new ArrayList<>(Arrays.asList(resolved)));
+  }
+
+  private static void checkReference(JsonObject ref, int group, int[] rowCounts, int paramsPerRow) {
+    Integer row = ref.getInteger("row");
+    Integer param = ref.getInteger("param");
+    JsonArray key = ref.getJsonArray("key");
+    Integer keyGroup = key != null && key.size() == 2 ? key.getInteger(0) : null;
+    Integer keyRow = key != null && key.size() == 2 ? key.getInteger(1) : null;
+    if (
+      row == null || row < 0 || row >= rowCounts[group] || param == null || param < 0 || param >= paramsPerRow ||
+        keyGroup == null || keyGroup < 0 || keyGroup >= group || keyRow == null || keyRow < 0 ||
+        keyRow >= rowCounts[keyGroup]
+      ) {
+      throw new IllegalArgumentException("Invalid key reference in insert " + group + ": " + ref.encode());
+    }
+  }
+
+  /**
+   * A parameter of a statement that gets the generated key of a row of an earlier group.
+   */
+  private static class KeyReference {
+    private final int param;
+    private final int group;
+    private final int row;
+
+    private KeyReference(int param, int group, int row) {
+      this.param = param;
+      this.group = group;
+      this.row = row;
+    }
+  }
+}
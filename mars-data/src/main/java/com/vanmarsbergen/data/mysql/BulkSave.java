@@ -0,0 +1,233 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import com.vanmarsbergen.mars.data.Model;
+import com.vanmarsbergen.mars.data.Relation;
+import com.vanmarsbergen.mars.data.impl.ModelImpl;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts a list of models and the models of their relations with one db.mysql.query.bulkInsert request, so in one
+ * transaction with multi-row INSERTs per table, see {@link BulkInsert}.
+ *
+ * Models are inserted before the models that refer to them by the declared relations, see
+ * {@link ModelImpl#relations()}: the related model of a belongsTo relation before the model, the model before the
+ * related models of a hasOne or hasMany relation. The foreign keys of the later models get the generated keys of the
+ * earlier ones, or their primary key when they already have one. Relations that aren't declared are inserted after
+ * the model, without setting keys. Afterwards the generated keys are put on the models.
+ *
+ * Models that have a primary key which isn't inserted are taken as stored already, they are only referred to.
+ */
+public class BulkSave {
+  private final Vertx vertx;
+
+  public BulkSave(Vertx vertx) {
+    this.vertx = vertx;
+  }
+
+  /**
+   * Insert the models and their relations. The handler receives the reply of db.mysql.query.bulkInsert, with the
+   * total rows "updated" and the generated "keys" per insert.
+   */
+  public void save(List<? extends Model> models, Handler<AsyncResult<JsonObject>> handler) {
+    Map<Model, Node> nodes = new IdentityHashMap<>();
+    List<Node> ordered = new ArrayList<>();
+    JsonArray inserts;
+
+    try {
+      models.forEach(model -> add(model, nodes, ordered));
+      ordered.forEach(node -> level(node, new IdentityHashMap<>()));
+      ordered.sort(Comparator.comparingInt(node -> node.level));
+      inserts = inserts(ordered);
+    } catch (IllegalArgumentException e) {
+      handler.handle(Future.failedFuture(e));
+      return;
+    }
+
+    vertx.eventBus().<JsonObject>send("db.mysql.query.bulkInsert", new JsonObject().put("inserts", inserts), reply -> {
+      if (reply.failed()) {
+        handler.handle(Future.failedFuture(reply.cause()));
+        return;
+      }
+
+      JsonArray keys = reply.result().body().getJsonArray("keys");
+      for (Node node : ordered) {
+        JsonArray groupKeys = node.group < 0 ? new JsonArray() : keys.getJsonArray(node.group);
+        if (node.row < groupKeys.size() && getKey(node.model) == null) {
+          node.model.put(primaryKey(node.model), groupKeys.getValue(node.row));
+        }
+      }
+      for (Node node : ordered) {
+        for (Reference reference : node.references) {
+          node.model.put(reference.column, getKey(reference.node.model));
+        }
+      }
+
+      handler.handle(Future.succeededFuture(reply.result().body()));
+    });
+  }
+
+  private static Node add(Model model, Map<Model, Node> nodes, List<Node> ordered) {
+    Node node = nodes.get(model);
+    if (node != null) {
+      return node;
+    }
+
+    node = new Node(model);
+    nodes.put(model, node);
+    ordered.add(node);
+    if (!(model instanceof ModelImpl)) {
+      return node;
+    }
+
+    ModelImpl modelImpl = (ModelImpl) model;
+    for (Map.Entry<String, Model> relation : modelImpl.getRelationsToOne().entrySet()) {
+      relate(node, modelImpl.relations().get(relation.getKey()), add(relation.getValue(), nodes, ordered));
+    }
+    for (String name : modelImpl.getRelationsToMany().keySet()) {
+      List<?> relatedModels = modelImpl.getRelationsToMany().get(name);
+      if (relatedModels == null) {
+        continue;
+      }
+      for (Object related : relatedModels) {
+        relate(node, modelImpl.relations().get(name), add((Model) related, nodes, ordered));
+      }
+    }
+
+    return node;
+  }
+
+  private static void relate(Node node, Relation relation, Node related) {
+    if (relation != null && relation.isBelongsTo()) {
+      node.before.add(related);
+      node.references.add(new Reference(relation.getForeignKey(), related));
+      return;
+    }
+
+    related.before.add(node);
+    if (relation != null) {
+      related.references.add(new Reference(relation.getForeignKey(), node));
+    }
+  }
+
+  /**
+   * The level of a node is one more than the highest level of the nodes it's inserted after.
+   */
+  private static int level(Node node, Map<Node, Boolean> visiting) {
+    if (node.level >= 0) {
+      return node.level;
+    }
+    if (visiting.put(node, true) != null) {
+      throw new IllegalArgumentException("The relations of " + node.model.getObjectType() + " form a cycle");
+    }
+
+    int level = 0;
+    for (Node before : node.before) {
+      level = Math.max(level, level(before, visiting) + 1);
+    }
+    visiting.remove(node);
+
+    return node.level = level;
+  }
+
+  /**
+   * Group the nodes, sorted by level, per insert query into the inserts of the request.
+   */
+  private static JsonArray inserts(List<Node> ordered) {
+    Map<String, Integer> groupIndexes = new HashMap<>();
+    JsonArray groups = new JsonArray();
+
+    for (Node node : ordered) {
+      List<String> columns = node.model instanceof ModelImpl ? ((ModelImpl) node.model).getInsertColumns() : null;
+      if (getKey(node.model) != null && (columns == null || !columns.contains(primaryKey(node.model)))) {
+        node.group = -1;
+        continue;
+      }
+
+      JsonObject request = node.model.getInsertRequest();
+      JsonArray params = request.getJsonArray("queryParams");
+      Object[] row = new Object[params.size()];
+      for (int i = 0; i < row.length; i++) {
+        row[i] = params.getValue(i);
+      }
+
+      JsonArray refs = new JsonArray();
+      for (Reference reference : node.references) {
+        int index = columns == null ? -1 : columns.indexOf(reference.column);
+        if (index < 0) {
+          throw new IllegalArgumentException(
+            "Column " + reference.column + " of " + node.model.getObjectType() + " is not inserted"
+          );
+        }
+
+        row[index] = getKey(reference.node.model);
+        if (row[index] == null) {
+          refs.add(new JsonObject().put("param", index)
+            .put("key", new JsonArray().add(reference.node.group).add(reference.node.row)));
+        }
+      }
+
+      String groupKey = node.level + ":" + request.getString("query");
+      node.group = groupIndexes.computeIfAbsent(groupKey, key -> {
+        groups.add(new JsonObject()
+          .put("query", request.getString("query"))
+          .put("rows", new JsonArray())
+          .put("refs", new JsonArray()));
+        return groups.size() - 1;
+      });
+      JsonObject group = groups.getJsonObject(node.group);
+      JsonArray rows = group.getJsonArray("rows");
+      node.row = rows.size();
+      rows.add(new JsonArray(new ArrayList<>(Arrays.asList(row))));
+      for (int i = 0; i < refs.size(); i++) {
+        group.getJsonArray("refs").add(refs.getJsonObject(i).put("row", node.row));
+      }
+    }
+
+    return groups;
+  }
+
+  private static Object getKey(Model model) {
+    Integer key = model.getInteger(primaryKey(model));
+    return key == null || key == 0 ? null : key;
+  }
+
+  private static String primaryKey(Model model) {
+    return model instanceof ModelImpl ? ((ModelImpl) model).getPrimaryKey() : "id";
+  }
+
+  private static class Node {
+    private final Model model;
+    private final List<Node> before = new ArrayList<>();
+    private final List<Reference> references = new ArrayList<>();
+    private int level = -1;
+    private int group;
+    private int row;
+
+    private Node(Model model) {
+      this.model = model;
+    }
+  }
+
+  private static class Reference {
+    private final String column;
+    private final Node node;
+
+    private Reference(String column, Node node) {
+      this.column = column;
+      this.node = node;
+    }
+  }
+}
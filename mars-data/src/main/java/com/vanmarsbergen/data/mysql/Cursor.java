@@ -0,0 +1,88 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in a keyset paginated result, built from the sort key and primary key of a row.
+ *
+ * Cursors are passed to API clients as opaque strings, see {@link #encode()} and {@link #decode(String)}.
+ */
+public class Cursor {
+  private static final String FORWARD = "a";
+  private static final String BACKWARD = "b";
+
+  private final Object sortValue;
+  private final Object primaryKey;
+  private final boolean backward;
+
+  private Cursor(Object sortValue, Object primaryKey, boolean backward) {
+    this.sortValue = sortValue;
+    this.primaryKey = primaryKey;
+    this.backward = backward;
+  }
+
+  /**
+   * Cursor pointing to the rows after the given row.
+   */
+  public static Cursor after(JsonObject row, String sortColumn, String primaryKey) {
+    return new Cursor(row.getValue(sortColumn), row.getValue(primaryKey), false);
+  }
+
+  /**
+   * Cursor pointing to the rows before the given row.
+   */
+  public static Cursor before(JsonObject row, String sortColumn, String primaryKey) {
+    return new Cursor(row.getValue(sortColumn), row.getValue(primaryKey), true);
+  }
+
+  /**
+   * Decode a cursor given by an API client.
+   *
+   * @param cursor Encoded cursor
+   * @return The cursor, or null when no cursor is given
+   * @throws IllegalArgumentException When the cursor is not valid
+   */
+  public static Cursor decode(String cursor) {
+    if (cursor == null || cursor.isEmpty()) {
+      return null;
+    }
+
+    try {
+      JsonArray values = new JsonArray(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+      if (values.size() != 3 || !FORWARD.equals(values.getValue(0)) && !BACKWARD.equals(values.getValue(0))) {
+        throw new IllegalArgumentException("Invalid cursor");
+      }
+
+      return new Cursor(values.getValue(1), values.getValue(2), BACKWARD.equals(values.getValue(0)));
+    } catch (DecodeException | ClassCastException e) {
+      throw new IllegalArgumentException("Invalid cursor", e);
+    }
+  }
+
+  public String encode() {
+    String json = new JsonArray()
+      .add(backward ? BACKWARD : FORWARD)
+      .add(sortValue)
+      .add(primaryKey)
+      .encode();
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public Object getSortValue() {
+    return sortValue;
+  }
+
+  public Object getPrimaryKey() {
+    return primaryKey;
+  }
+
+  public boolean isBackward() {
+    return backward;
+  }
+}
@@ -0,0 +1,186 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded read-through cache for single rows fetched by primary key or UUID.
+ *
+ * Every table gets its own LRU map with a maximum size and a time to live, both configurable per table:
+ * <pre>
+ * "entity_cache": {
+ *   "max_size": 1000,
+ *   "ttl": 30000,
+ *   "tables": {
+ *     "users": { "max_size": 5000, "ttl": 60000 },
+ *     "audit_logs": { "enabled": false }
+ *   }
+ * }
+ * </pre>
+ * The cache is meant to be used from a single verticle, so it is not thread-safe.
+ */
+public class EntityCache {
+  private static final int DEFAULT_MAX_SIZE = 1000;
+  private static final long DEFAULT_TTL = 30000;
+
+  private final int maxSize;
+  private final long ttl;
+  private final JsonObject tableConfig;
+  private final Map<String, TableCache> tables = new HashMap<>();
+
+  public EntityCache(JsonObject config) {
+    this.maxSize = config.getInteger("max_size", DEFAULT_MAX_SIZE);
+    this.ttl = config.getLong("ttl", DEFAULT_TTL);
+    this.tableConfig = config.getJsonObject("tables", new JsonObject());
+  }
+
+  public static String primaryKey(Object primaryKey) {
+    return "pk:" + primaryKey;
+  }
+
+  public static String uuid(String uuid) {
+    return "uuid:" + uuid;
+  }
+
+  /**
+   * Returns the cached row, or null when it is missing, expired or the table is not cached.
+   */
+  public JsonObject get(String tableName, String key) {
+    TableCache cache = getTableCache(tableName);
+    if (cache == null) {
+      return null;
+    }
+
+    Entry entry = cache.entries.get(key);
+    if (entry == null) {
+      cache.misses++;
+      return null;
+    }
+
+    if (entry.expiresAt < System.currentTimeMillis()) {
+      cache.entries.remove(key);
+      cache.expirations++;
+      cache.misses++;
+      return null;
+    }
+
+    cache.hits++;
+    return entry.row;
+  }
+
+  /**
+   * Returns the write generation of a table. Capture it before querying and pass it to
+   * {@link #put(String, String, JsonObject, long)} so rows read before a write finished are never stored.
+   */
+  public long generation(String tableName) {
+    TableCache cache = getTableCache(tableName);
+    return cache == null ? 0 : cache.generation;
+  }
+
+  public void put(String tableName, String key, JsonObject row, long generation) {
+    TableCache cache = getTableCache(tableName);
+    if (cache == null || row == null || cache.generation != generation) {
+      return;
+    }
+
+    cache.entries.put(key, new Entry(row, System.currentTimeMillis() + cache.ttl));
+  }
+
+  /**
+   * Drop all cached rows of a table. A null table name means the written table is unknown and everything is dropped.
+   */
+  public void invalidate(String tableName) {
+    if (tableName == null) {
+      invalidateAll();
+      return;
+    }
+
+    TableCache cache = tables.get(tableName);
+    if (cache != null) {
+      cache.generation++;
+      cache.invalidations++;
+      cache.entries.clear();
+    }
+  }
+
+  public void invalidateAll() {
+    tables.keySet().forEach(this::invalidate);
+  }
+
+  /**
+   * Hit, miss and eviction counters per table, useful to size the cache.
+   */
+  public JsonObject stats() {
+    JsonObject stats = new JsonObject();
+    tables.forEach((tableName, cache) -> stats.put(tableName, new JsonObject()
+      .put("size", cache.entries.size())
+      .put("max_size", cache.maxSize)
+      .put("ttl", cache.ttl)
+      .put("hits", cache.hits)
+      .put("misses", cache.misses)
+      .put("evictions", cache.evictions)
+      .put("expirations", cache.expirations)
+      .put("invalidations", cache.invalidations)
+    ));
+
+    return stats;
+  }
+
+  private TableCache getTableCache(String tableName) {
+    TableCache cache = tables.get(tableName);
+    if (cache != null) {
+      return cache;
+    }
+
+    JsonObject config = tableConfig.getJsonObject(tableName, new JsonObject());
+    if (!config.getBoolean("enabled", true)) {
+      return null;
+    }
+
+    cache = new TableCache(config.getInteger("max_size", maxSize), config.getLong("ttl", ttl));
+    tables.put(tableName, cache);
+
+    return cache;
+  }
+
+  private static class Entry {
+    private final JsonObject row;
+    private final long expiresAt;
+
+    private Entry(JsonObject row, long expiresAt) {
+      this.row = row;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private static class TableCache {
+    private final int maxSize;
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries;
+    private long generation = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+    private long invalidations = 0;
+
+    private TableCache(int maxSize, long ttl) {
+      this.maxSize = maxSize;
+      this.ttl = ttl;
+      this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          if (size() > TableCache.this.maxSize) {
+            evictions++;
+            return true;
+          }
+
+          return false;
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import com.vanmarsbergen.mars.core.api.ApiStatus;
+import com.vanmarsbergen.mars.core.api.Deadline;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.UpdateResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Buffers concurrent single row INSERTs with the same SQL and stores them as one multi-row INSERT in one transaction.
+ *
+ * A buffer is flushed when it holds "max_rows" rows or "window" milliseconds after its first row arrived, whatever
+ * comes first. Only tables listed in "tables" are coalesced, or every table when the list is missing:
+ * <pre>
+ * "insert_coalescing": {
+ *   "window": 5,
+ *   "max_rows": 500,
+ *   "tables": ["events", "audit_logs"]
+ * }
+ * </pre>
+ * Every caller gets its own reply with the key generated for its row. When the database rejects the multi-row INSERT
+ * with a constraint or data error, the rows are retried one by one so only the callers with an invalid row receive a
+ * failure. Other failures, like a timeout or a failed commit, leave unknown whether the rows were stored, so all
+ * callers receive the failure instead of possibly storing the rows twice.
+ *
+ * The batch runs with the latest deadline of its callers, or without one when a caller has no deadline.
+ */
+public class InsertCoalescer {
+  private static final Pattern PLAIN_INSERT = Pattern.compile("^\\s*insert\\s+into\\s", Pattern.CASE_INSENSITIVE);
+  private static final long DEFAULT_WINDOW = 5;
+  private static final int DEFAULT_MAX_ROWS = 500;
+
+  private final Vertx vertx;
+  private final long window;
+  private final int maxRows;
+  private final Set<String> tables;
+  private final BiConsumer<TransactionalUpdate, Handler<AsyncResult<List<UpdateResult>>>> executor;
+  private final Consumer<Message<JsonObject>> fallback;
+  private final BiConsumer<Message<JsonObject>, Object> replier;
+  private final Map<String, Batch> batches = new HashMap<>();
+
+  /**
+   * @param vertx    Vertx instance to schedule flushes with
+   * @param config   JsonObject with the coalescing configuration
+   * @param executor Runs the multi-row INSERT in a transaction
+   * @param fallback Executes a single INSERT message the regular way
+   * @param replier  Replies a message with the result of its row
+   */
+  public InsertCoalescer(Vertx vertx, JsonObject config,
+                         BiConsumer<TransactionalUpdate, Handler<AsyncResult<List<UpdateResult>>>> executor,
+                         Consumer<Message<JsonObject>> fallback, BiConsumer<Message<JsonObject>, Object> replier) {
+    this.vertx = vertx;
+    this.window = config.getLong("window", DEFAULT_WINDOW);
+    this.maxRows = config.getInteger("max_rows", DEFAULT_MAX_ROWS);
+    this.tables = config.containsKey("tables") ? toSet(config.getJsonArray("tables")) : null;
+    this.executor = executor;
+    this.fallback = fallback;
+    this.replier = replier;
+  }
+
+  private static Set<String> toSet(JsonArray tables) {
+    Set<String> set = new HashSet<>();
+    for (int i = 0; i < tables.size(); i++) {
+      set.add(tables.getString(i));
+    }
+
+    return set;
+  }
+
+  /**
+   * Buffer an update message when it is a single row INSERT on a coalesced table.
+   *
+   * @param msg Eventbus Message containing a JsonObject with "query" and "queryParams"
+   * @return True when the message is buffered and will be replied by the coalescer, false when it should be executed
+   * the regular way
+   */
+  public boolean offer(Message<JsonObject> msg) {
+    String query = msg.body().getString("query");
+    JsonArray queryParams = msg.body().getJsonArray("queryParams", new JsonArray());
+
+    Batch batch = batches.get(query);
+    if (batch == null) {
+      if (query == null || !PLAIN_INSERT.matcher(query).find()) {
+        return false;
+      }
+
+      if (tables != null && !tables.contains(MySQL.getWriteTable(query))) {
+        return false;
+      }
+
+      MultiRowInsert insert = MultiRowInsert.parse(query);
+      if (insert == null || insert.hasSuffix() || insert.getParamsPerRow() != queryParams.size()) {
+        return false;
+      }
+
+      batch = new Batch(insert, insert.getMaxRows(maxRows));
+      batches.put(query, batch);
+      batch.timerId = vertx.setTimer(window, id -> flush(query));
+    } else if (batch.insert.getParamsPerRow() != queryParams.size()) {
+      return false;
+    }
+
+    batch.messages.add(msg);
+    batch.rows.add(queryParams);
+
+    if (batch.messages.size() >= batch.maxRows) {
+      vertx.cancelTimer(batch.timerId);
+      flush(query);
+    }
+
+    return true;
+  }
+
+  private void flush(String query) {
+    Batch batch = batches.remove(query);
+    if (batch == null) {
+      return;
+    }
+
+    if (batch.messages.size() == 1) {
+      fallback.accept(batch.messages.get(0));
+      return;
+    }
+
+    JsonArray params = new JsonArray();
+    batch.rows.forEach(params::addAll);
+
+    TransactionalUpdate transaction = new TransactionalUpdate(
+      new JsonArray().add(batch.insert.getQuery(batch.rows.size())),
+      new JsonArray().add(params)
+    ).deadline(latestDeadline(batch.messages));
+
+    executor.accept(transaction, result -> {
+      if (result.succeeded()) {
+        replyPerRow(batch, result.result().get(0));
+        return;
+      }
+
+      if (transaction.isRejected()) {
+        batch.messages.forEach(fallback);
+        return;
+      }
+
+      int failureCode = result.cause() instanceof ReplyException ?
+        ((ReplyException) result.cause()).failureCode() : ApiStatus.STATUS_DB_FAILURE.statusCode();
+      batch.messages.forEach(msg -> msg.fail(failureCode, result.cause().getMessage()));
+    });
+  }
+
+  private static long latestDeadline(List<Message<JsonObject>> messages) {
+    long latest = 0;
+    for (Message<JsonObject> msg : messages) {
+      long deadline = Deadline.of(msg);
+      if (deadline == 0) {
+        return 0;
+      }
+      latest = Math.max(latest, deadline);
+    }
+
+    return latest;
+  }
+
+  /**
+   * Reply every caller with its row and key. When the database reports another amount of rows than one per caller,
+   * it can't be told which rows were stored, so every caller gets the count of the whole statement without keys.
+   */
+  private void replyPerRow(Batch batch, UpdateResult result) {
+    JsonArray keys = result.getKeys();
+    boolean rowPerMessage = result.getUpdated() == batch.messages.size();
+    boolean keyPerRow = rowPerMessage && keys != null && keys.size() == batch.messages.size();
+
+    int updated = rowPerMessage ? 1 : result.getUpdated();
+
+    for (int i = 0; i < batch.messages.size(); i++) {
+      JsonArray rowKeys = keyPerRow ? new JsonArray().add(keys.getValue(i)) : new JsonArray();
+      replier.accept(batch.messages.get(i), new UpdateResult(updated, rowKeys).toJson());
+    }
+  }
+
+  private static class Batch {
+    private final MultiRowInsert insert;
+    private final int maxRows;
+    private final List<Message<JsonObject>> messages = new ArrayList<>();
+    private final List<JsonArray> rows = new ArrayList<>();
+    private long timerId;
+
+    private Batch(MultiRowInsert insert, int maxRows) {
+      this.insert = insert;
+      this.maxRows = maxRows;
+    }
+  }
+}
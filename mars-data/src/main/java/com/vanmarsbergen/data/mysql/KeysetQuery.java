@@ -0,0 +1,162 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.jooq.Condition;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.SelectSeekStep2;
+import org.jooq.SortField;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.table;
+
+/**
+ * Builds keyset (seek) paginated queries: instead of an OFFSET it continues after the sort key and primary key of
+ * the last row, e.g. {@code WHERE (created_at, id) > (?, ?) ORDER BY created_at, id LIMIT 26}, so deep pages are as
+ * fast as the first one and no COUNT(*) is needed.
+ *
+ * The sort column may not contain NULL values. Column names are quoted as identifiers, so they can come from an API
+ * request.
+ */
+public class KeysetQuery {
+  public static final int DEFAULT_LIMIT = 25;
+  public static final int MAX_LIMIT = 1000;
+
+  private final String tableName;
+  private final List<Condition> conditions = new ArrayList<>();
+  private String sortColumn = "id";
+  private String primaryKey = "id";
+  private boolean descending = false;
+  private int limit = DEFAULT_LIMIT;
+  private Cursor cursor;
+
+  private KeysetQuery(String tableName) {
+    this.tableName = tableName;
+  }
+
+  public static KeysetQuery create(String tableName) {
+    return new KeysetQuery(tableName);
+  }
+
+  /**
+   * Create a keyset query from a db.mysql.query.findPage request with "bucket", "sortColumn", "descending",
+   * "limit", "cursor" and "where", an object of columns and the values they should equal.
+   *
+   * @throws IllegalArgumentException When the bucket is missing or the cursor is not valid
+   */
+  public static KeysetQuery fromRequest(JsonObject request) {
+    if (request.getString("bucket") == null) {
+      throw new IllegalArgumentException("Missing bucket");
+    }
+
+    KeysetQuery query = create(request.getString("bucket"))
+      .sortBy(request.getString("sortColumn", "id"), request.getBoolean("descending", false))
+      .primaryKey(request.getString("primaryKey", "id"))
+      .limit(request.getInteger("limit", DEFAULT_LIMIT))
+      .cursor(Cursor.decode(request.getString("cursor")));
+
+    for (Map.Entry<String, Object> condition : request.getJsonObject("where", new JsonObject())) {
+      query.where(field(name(condition.getKey())).equal(condition.getValue()));
+    }
+
+    return query;
+  }
+
+  public KeysetQuery sortBy(String sortColumn, boolean descending) {
+    this.sortColumn = sortColumn;
+    this.descending = descending;
+    return this;
+  }
+
+  public KeysetQuery primaryKey(String primaryKey) {
+    this.primaryKey = primaryKey;
+    return this;
+  }
+
+  /**
+   * Set the rows per page, at least 1 and at most {@link #MAX_LIMIT}.
+   */
+  public KeysetQuery limit(int limit) {
+    this.limit = Math.max(1, Math.min(MAX_LIMIT, limit));
+    return this;
+  }
+
+  public KeysetQuery cursor(Cursor cursor) {
+    this.cursor = cursor;
+    return this;
+  }
+
+  public KeysetQuery where(Condition condition) {
+    this.conditions.add(condition);
+    return this;
+  }
+
+  /**
+   * Returns the query for the page. It selects one row more than the limit to find out whether there is a next page.
+   */
+  public Query getQuery() {
+    boolean backward = cursor != null && cursor.isBackward();
+    boolean descendingOrder = descending != backward;
+
+    SelectSeekStep2<Record, Object, Object> select = MySQL.JooqQuery
+      .select()
+      .from(table(tableName))
+      .where(conditions)
+      .orderBy(sortField(sortColumn, descendingOrder), sortField(primaryKey, descendingOrder));
+
+    if (cursor == null) {
+      return select.limit(limit + 1);
+    }
+
+    return select.seekAfter(cursor.getSortValue(), cursor.getPrimaryKey()).limit(limit + 1);
+  }
+
+  /**
+   * Turn the rows of the query into a page with rows in the requested order and the cursors to the pages around it.
+   *
+   * @param rows Rows returned by the query of {@link #getQuery()}
+   * @return JsonObject with "rows", "nextCursor" and "previousCursor", cursors are null at the ends of the result
+   */
+  public JsonObject toPage(List<JsonObject> rows) {
+    boolean backward = cursor != null && cursor.isBackward();
+    boolean hasMore = rows.size() > limit;
+
+    List<JsonObject> pageRows = new ArrayList<>(hasMore ? rows.subList(0, limit) : rows);
+    if (backward) {
+      Collections.reverse(pageRows);
+    }
+
+    JsonObject page = new JsonObject()
+      .put("rows", new JsonArray(pageRows))
+      .putNull("nextCursor")
+      .putNull("previousCursor");
+
+    if (pageRows.isEmpty()) {
+      return page;
+    }
+
+    JsonObject first = pageRows.get(0);
+    JsonObject last = pageRows.get(pageRows.size() - 1);
+
+    if (backward || hasMore) {
+      page.put("nextCursor", Cursor.after(last, sortColumn, primaryKey).encode());
+    }
+
+    if (backward ? hasMore : cursor != null) {
+      page.put("previousCursor", Cursor.before(first, sortColumn, primaryKey).encode());
+    }
+
+    return page;
+  }
+
+  private static SortField<Object> sortField(String column, boolean descending) {
+    return descending ? field(name(column)).desc() : field(name(column)).asc();
+  }
+}
@@ -0,0 +1,99 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects single row lookups made within one event loop tick and sends them as one db.mysql.findByPks or
+ * db.mysql.findByUUIDs request per table, so rendering a list with relations costs one query per table instead of
+ * one per row. The storage verticle splits requests with more than 1000 keys into several queries.
+ *
+ * Create one batcher per verticle and only use it from that verticle's context.
+ */
+public class LookupBatcher {
+  private final Vertx vertx;
+  private Map<String, Map<Object, List<Handler<AsyncResult<JsonObject>>>>> primaryKeys = new HashMap<>();
+  private Map<String, Map<Object, List<Handler<AsyncResult<JsonObject>>>>> uuids = new HashMap<>();
+  private boolean scheduled = false;
+
+  public LookupBatcher(Vertx vertx) {
+    this.vertx = vertx;
+  }
+
+  /**
+   * Find a row by primary key. The handler receives null when the row doesn't exist.
+   */
+  public LookupBatcher findByPk(String bucket, Integer primaryKey, Handler<AsyncResult<JsonObject>> handler) {
+    add(primaryKeys, bucket, primaryKey, handler);
+    return this;
+  }
+
+  /**
+   * Find a row by UUID. The handler receives null when the row doesn't exist.
+   */
+  public LookupBatcher findByUUID(String bucket, String uuid, Handler<AsyncResult<JsonObject>> handler) {
+    add(uuids, bucket, uuid, handler);
+    return this;
+  }
+
+  private void add(Map<String, Map<Object, List<Handler<AsyncResult<JsonObject>>>>> requests, String bucket,
+                   Object key, Handler<AsyncResult<JsonObject>> handler) {
+    requests
+      .computeIfAbsent(bucket, name -> new LinkedHashMap<>())
+      .computeIfAbsent(key, name -> new ArrayList<>())
+      .add(handler);
+
+    if (!scheduled) {
+      scheduled = true;
+      vertx.runOnContext(v -> dispatch());
+    }
+  }
+
+  private void dispatch() {
+    scheduled = false;
+
+    Map<String, Map<Object, List<Handler<AsyncResult<JsonObject>>>>> primaryKeyRequests = primaryKeys;
+    Map<String, Map<Object, List<Handler<AsyncResult<JsonObject>>>>> uuidRequests = uuids;
+    primaryKeys = new HashMap<>();
+    uuids = new HashMap<>();
+
+    primaryKeyRequests.forEach((bucket, requests) -> send("db.mysql.findByPks", "primaryKeys", bucket, requests));
+    uuidRequests.forEach((bucket, requests) -> send("db.mysql.findByUUIDs", "uuids", bucket, requests));
+  }
+
+  private void send(String address, String keysField, String bucket,
+                    Map<Object, List<Handler<AsyncResult<JsonObject>>>> requests) {
+    JsonObject request = new JsonObject()
+      .put("bucket", bucket)
+      .put(keysField, new JsonArray(new ArrayList<>(requests.keySet())));
+
+    vertx.eventBus().<JsonArray>send(address, request, reply -> {
+      if (reply.failed()) {
+        requests.values().forEach(handlers ->
+          handlers.forEach(handler -> handler.handle(Future.failedFuture(reply.cause())))
+        );
+        return;
+      }
+
+      JsonArray rows = reply.result().body();
+      int index = 0;
+      for (List<Handler<AsyncResult<JsonObject>>> handlers : requests.values()) {
+        JsonObject row = rows.getJsonObject(index++);
+        for (int i = 0; i < handlers.size(); i++) {
+          JsonObject handlerRow = row == null || i == 0 ? row : row.copy();
+          handlers.get(i).handle(Future.succeededFuture(handlerRow));
+        }
+      }
+    });
+  }
+}
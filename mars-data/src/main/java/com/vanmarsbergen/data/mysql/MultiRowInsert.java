@@ -0,0 +1,237 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.json.JsonArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites a single row INSERT template like {@code insert into `t` (`a`, `b`) values (?, ?)} into a multi-row
+ * {@code insert into `t` (`a`, `b`) values (?, ?), (?, ?), ...} so many rows are stored in one round trip.
+ */
+public class MultiRowInsert {
+  /**
+   * MySQL and MariaDB refuse prepared statements with more placeholders than this.
+   */
+  public static final int MAX_PLACEHOLDERS = 65535;
+
+  private final String prefix;
+  private final String row;
+  private final String suffix;
+  private final int paramsPerRow;
+
+  private MultiRowInsert(String prefix, String row, String suffix, int paramsPerRow) {
+    this.prefix = prefix;
+    this.row = row;
+    this.suffix = suffix;
+    this.paramsPerRow = paramsPerRow;
+  }
+
+  /**
+   * Parse an INSERT template.
+   *
+   * @param query SQL with exactly one VALUES row
+   * @return The parsed template, or null when the query is not an INSERT that can be rewritten. Placeholders outside
+   * the VALUES row, like in ON DUPLICATE KEY UPDATE, are not supported, neither are rows without placeholders as the
+   * parameters wouldn't tell how many rows to insert.
+   */
+  public static MultiRowInsert parse(String query) {
+    if (query == null || !query.trim().toLowerCase().startsWith("insert")) {
+      return null;
+    }
+
+    int valuesEnd = findValuesKeyword(query);
+    if (valuesEnd == -1) {
+      return null;
+    }
+
+    int rowStart = query.indexOf('(', valuesEnd);
+    if (rowStart == -1 || !query.substring(valuesEnd, rowStart).trim().isEmpty()) {
+      return null;
+    }
+
+    int rowEnd = findClosingParenthesis(query, rowStart);
+    if (rowEnd == -1) {
+      return null;
+    }
+
+    String prefix = query.substring(0, rowStart);
+    String row = query.substring(rowStart, rowEnd + 1);
+    String suffix = query.substring(rowEnd + 1);
+
+    int paramsPerRow = countPlaceholders(row);
+    if (paramsPerRow == 0 || countPlaceholders(prefix) > 0 || countPlaceholders(suffix) > 0 ||
+      suffix.trim().startsWith(",")) {
+      return null;
+    }
+
+    return new MultiRowInsert(prefix, row, suffix, paramsPerRow);
+  }
+
+  /**
+   * Returns true when the statement continues after the VALUES row, for example with ON DUPLICATE KEY UPDATE.
+   */
+  public boolean hasSuffix() {
+    return !suffix.trim().isEmpty();
+  }
+
+  public int getParamsPerRow() {
+    return paramsPerRow;
+  }
+
+  /**
+   * Returns the number of rows that fit in one statement, limited by the given maximum and the placeholder limit.
+   */
+  public int getMaxRows(int limit) {
+    return Math.max(1, Math.min(limit, MAX_PLACEHOLDERS / paramsPerRow));
+  }
+
+  /**
+   * Returns the SQL to insert the given number of rows at once.
+   */
+  public String getQuery(int rows) {
+    StringBuilder query = new StringBuilder(prefix.length() + suffix.length() + rows * (row.length() + 2));
+    query.append(prefix);
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) {
+        query.append(", ");
+      }
+      query.append(row);
+    }
+
+    return query.append(suffix).toString();
+  }
+
+  /**
+   * Split rows of parameters into chunks of at most maxRows rows and flatten every chunk into one parameter array.
+   *
+   * @param rows    List of parameter arrays, one per row
+   * @param maxRows Maximum amount of rows per statement, see {@link #getMaxRows(int)}
+   * @return Flattened parameters per statement
+   */
+  public List<JsonArray> flatten(List<JsonArray> rows, int maxRows) {
+    List<JsonArray> statements = new ArrayList<>();
+    JsonArray params = new JsonArray();
+    int rowsInStatement = 0;
+
+    for (JsonArray rowParams : rows) {
+      if (rowParams.size() != paramsPerRow) {
+        throw new IllegalArgumentException(
+          String.format("Expected %d parameters per row, instead got %d", paramsPerRow, rowParams.size())
+        );
+      }
+
+      if (rowsInStatement == maxRows) {
+        statements.add(params);
+        params = new JsonArray();
+        rowsInStatement = 0;
+      }
+
+      params.addAll(rowParams);
+      rowsInStatement++;
+    }
+
+    if (rowsInStatement > 0) {
+      statements.add(params);
+    }
+
+    return statements;
+  }
+
+  /**
+   * Returns the amount of rows the flattened parameters of one statement contain.
+   */
+  public int getRowCount(JsonArray flattenedParams) {
+    return flattenedParams.size() / paramsPerRow;
+  }
+
+  private static int findValuesKeyword(String query) {
+    String lowerQuery = query.toLowerCase();
+    char quote = 0;
+
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+
+      if (quote != 0) {
+        if (c == '\\') {
+          i++;
+        } else if (c == quote) {
+          quote = 0;
+        }
+        continue;
+      }
+
+      if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+        continue;
+      }
+
+      if ((i == 0 || !isIdentifierPart(query.charAt(i - 1))) && lowerQuery.startsWith("value", i)) {
+        int end = lowerQuery.startsWith("values", i) ? i + 6 : i + 5;
+        if (end == query.length() || !isIdentifierPart(query.charAt(end))) {
+          return end;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
+  private static int findClosingParenthesis(String query, int start) {
+    int depth = 0;
+    char quote = 0;
+
+    for (int i = start; i < query.length(); i++) {
+      char c = query.charAt(i);
+
+      if (quote != 0) {
+        if (c == '\\') {
+          i++;
+        } else if (c == quote) {
+          quote = 0;
+        }
+        continue;
+      }
+
+      if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')' && --depth == 0) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private static int countPlaceholders(String sql) {
+    int count = 0;
+    char quote = 0;
+
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+
+      if (quote != 0) {
+        if (c == '\\') {
+          i++;
+        } else if (c == quote) {
+          quote = 0;
+        }
+        continue;
+      }
+
+      if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '?') {
+        count++;
+      }
+    }
+
+    return count;
+  }
+}
@@ -6,12 +6,40 @@ import org.jooq.Query;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public interface MySQL {
+  Pattern WRITE_TABLE_PATTERN = Pattern.compile(
+    "^\\s*(?:insert\\s+(?:ignore\\s+)?into|replace\\s+into|update(?:\\s+ignore)?|delete\\s+from)\\s+" +
+      "(?:[`\"]?\\w+[`\"]?\\.)?[`\"]?(\\w+)[`\"]?",
+    Pattern.CASE_INSENSITIVE
+  );
+
   static JsonObject prepareRequest(Query query) {
     return new JsonObject()
       .put("query", query.getSQL())
       .put("queryParams", query.getBindValues());
   }
 
+  /**
+   * Returns the table an INSERT, REPLACE, UPDATE or DELETE statement writes to.
+   *
+   * @param query SQL statement as sent over the eventbus
+   * @return Table name without quotes, or null when the statement is not recognized as a write
+   */
+  static String getWriteTable(String query) {
+    if (query == null) {
+      return null;
+    }
+
+    Matcher matcher = WRITE_TABLE_PATTERN.matcher(query);
+    if (!matcher.find()) {
+      return null;
+    }
+
+    return matcher.group(1);
+  }
+
   DSLContext JooqQuery = DSL.using(SQLDialect.MARIADB);
 }
@@ -5,40 +5,124 @@
 package com.vanmarsbergen.mars.data.mysql;
 
 import com.vanmarsbergen.mars.core.api.ApiStatus;
+import com.vanmarsbergen.mars.core.api.Deadline;
+import com.vanmarsbergen.mars.core.eventbus.RowSet;
+import com.vanmarsbergen.mars.core.eventbus.RowSetCodec;
+import com.vanmarsbergen.mars.data.redis.ModelCache;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.jdbc.impl.actions.JDBCStatementHelper;
+import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
 import io.vertx.ext.sql.UpdateResult;
 import org.jooq.Query;
 
-import java.util.Arrays;
-import java.util.Iterator;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
 
 import static org.jooq.impl.DSL.field;
 import static org.jooq.impl.DSL.table;
 
 public class MySQLStorageVerticle extends AbstractVerticle {
-  private JDBCClient client;
+  private static final int DEFAULT_STREAM_CHUNK_SIZE = 500;
+  private static final int DEFAULT_MULTI_ROW_INSERT_SIZE = 1000;
+  private static final int MAX_KEYS_PER_QUERY = 1000;
 
-  private AsyncResult<UpdateResult> lastResult;
+  private JDBCClient client;
+  private JDBCStatementHelper statementHelper;
+  private EntityCache entityCache;
+  private ModelCache modelCache;
+  private InsertCoalescer insertCoalescer;
+  private SingleFlight singleFlight;
+  private ReplicaRouter replicaRouter;
+  private final StorageMetrics metrics = new StorageMetrics();
+  private final String instanceId = UUID.randomUUID().toString();
+  private SlowQueryLog slowQueryLog;
 
   @Override
   public void start(Future<Void> startFuture) throws Exception {
+    RowSetCodec.register(vertx);
     this.client = JDBCClient.createShared(vertx, config(), config().getString("data_source_name", "MySQLDataSource"));
-
-    vertx.eventBus().consumer("db.mysql.query.find", this::queryFind);
-    vertx.eventBus().consumer("db.mysql.query.findOne", this::queryFindOne);
-    vertx.eventBus().consumer("db.mysql.query.update", this::queryUpdate);
-    vertx.eventBus().consumer("db.mysql.query.update.transactional", this::queryUpdateTransactional);
-    vertx.eventBus().consumer("db.mysql.query.batch", this::queryBatch);
-    vertx.eventBus().consumer("db.mysql.findByPk", this::findByPk);
-    vertx.eventBus().consumer("db.mysql.findByUUID", this::findByUUID);
+    this.statementHelper = new JDBCStatementHelper(config());
+
+    List<JDBCClient> replicas = new ArrayList<>();
+    JsonArray replicaConfigs = config().getJsonArray("read_replicas", new JsonArray());
+    for (int i = 0; i < replicaConfigs.size(); i++) {
+      JsonObject replicaConfig = replicaConfigs.getJsonObject(i);
+      String dataSourceName = replicaConfig.getString("data_source_name", "MySQLReplicaDataSource" + i);
+      replicas.add(JDBCClient.createShared(vertx, replicaConfig, dataSourceName));
+    }
+    this.replicaRouter = new ReplicaRouter(client, replicas, config());
+    vertx.eventBus().consumer("db.mysql.replicas.stats", msg -> msg.reply(replicaRouter.stats()));
+    vertx.eventBus().consumer("db.mysql.metrics", msg -> msg.reply(metricsReport()));
+    if (config().getLong("metrics_publish_interval", 0L) > 0) {
+      vertx.setPeriodic(
+        config().getLong("metrics_publish_interval"),
+        id -> vertx.eventBus().publish("db.mysql.metrics.report", metricsReport())
+      );
+    }
+
+    if (config().containsKey("entity_cache")) {
+      this.entityCache = new EntityCache(config().getJsonObject("entity_cache"));
+      vertx.eventBus().consumer("db.mysql.cache.stats", msg -> msg.reply(entityCache.stats()));
+    }
+
+    if (config().containsKey("model_cache")) {
+      this.modelCache = new ModelCache(vertx, config().getJsonObject("model_cache"));
+      vertx.eventBus().consumer("db.mysql.modelcache.stats", msg -> msg.reply(modelCache.stats()));
+    }
+
+    if (config().containsKey("slow_query_log")) {
+      this.slowQueryLog = new SlowQueryLog(config().getJsonObject("slow_query_log"));
+      vertx.eventBus().consumer("db.mysql.slowlog.stats", msg -> msg.reply(slowQueryLog.stats()));
+    }
+
+    this.singleFlight = new SingleFlight(config().getBoolean("single_flight", true));
+    vertx.eventBus().consumer("db.mysql.singleflight.stats", msg -> msg.reply(singleFlight.stats()));
+
+    if (config().containsKey("insert_coalescing")) {
+      this.insertCoalescer = new InsertCoalescer(
+        vertx,
+        config().getJsonObject("insert_coalescing"),
+        (transaction, handler) -> runTransaction("db.mysql.query.update", transaction, handler),
+        this::executeUpdate,
+        this::reply
+      );
+    }
+
+    vertx.eventBus().consumer("db.mysql.query.find", withDeadline(this::queryFind));
+    vertx.eventBus().consumer(RowStreamReader.ADDRESS, withDeadline(this::queryFindStream));
+    vertx.eventBus().consumer("db.mysql.query.findOne", withDeadline(this::queryFindOne));
+    vertx.eventBus().consumer("db.mysql.query.findPage", withDeadline(this::queryFindPage));
+    vertx.eventBus().consumer("db.mysql.query.update", withDeadline(this::queryUpdate));
+    vertx.eventBus().consumer("db.mysql.query.update.transactional", withDeadline(this::queryUpdateTransactional));
+    vertx.eventBus().consumer("db.mysql.query.batch", withDeadline(this::queryBatch));
+    vertx.eventBus().consumer("db.mysql.query.batchWithParams", withDeadline(this::queryBatchWithParams));
+    vertx.eventBus().consumer("db.mysql.query.bulkInsert", withDeadline(this::queryBulkInsert));
+    vertx.eventBus().consumer("db.mysql.findByPk", withDeadline(this::findByPk));
+    vertx.eventBus().consumer("db.mysql.findByUUID", withDeadline(this::findByUUID));
+    vertx.eventBus().consumer("db.mysql.findByPks", withDeadline(this::findByPks));
+    vertx.eventBus().consumer("db.mysql.findByUUIDs", withDeadline(this::findByUUIDs));
 
     client.getConnection(result -> {
       if (result.succeeded()) {
@@ -52,12 +136,33 @@ public class MySQLStorageVerticle extends AbstractVerticle {
   @Override
   public void stop() throws Exception {
     this.client.close();
+    this.replicaRouter.close();
+    if (modelCache != null) {
+      modelCache.close(res -> {});
+    }
+  }
+
+  /**
+   * Fail requests of which the {@link Deadline} already passed instead of handling them, the sender isn't waiting
+   * for the reply anymore.
+   */
+  private static Handler<Message<JsonObject>> withDeadline(Handler<Message<JsonObject>> handler) {
+    return msg -> {
+      if (Deadline.isExpired(Deadline.of(msg))) {
+        msg.fail(ApiStatus.STATUS_DB_DEADLINE_EXCEEDED.statusCode(), "Deadline exceeded before handling the request");
+        return;
+      }
+
+      handler.handle(msg);
+    };
   }
 
   /**
    * Make a query on the MySQL database connected via JDBC. Available on the eventbus, address can be found in the
    * start method
-   * If succeeded, it will return a JsonArray to the EventBus
+   * If succeeded, it will return a JsonArray to the EventBus, or a {@link RowSet} when "rowSet" is true, which local
+   * consumers receive without copying the rows. With "columnar" the row set is sent column by column to clustered
+   * nodes, which decode the columns when they are used
    *
    * @param msg Eventbus Message containing a JsonObject
    */
@@ -65,67 +170,135 @@ public class MySQLStorageVerticle extends AbstractVerticle {
   private void queryFind(Message<JsonObject> msg) {
     JsonObject message = msg.body();
 
-    client.getConnection(res -> {
-      if (res.failed()) {
-        msg.fail(ApiStatus.STATUS_DB_CONNECTION_FAILED.statusCode(), res.cause().getMessage());
+    ReplicaRouter.Target target = replicaRouter.select(null, message.getBoolean("readYourWrites", false));
+    queryRows(msg, target, message.getString("query"), message.getJsonArray("queryParams"), queryResult -> {
+      if (queryResult.failed()) {
+        fail(msg, queryResult.cause());
         return;
       }
 
-      SQLConnection connection = res.result();
+      ResultSet resultSet = queryResult.result();
+      boolean columnar = message.getBoolean("columnar", false);
+      if (columnar || message.getBoolean("rowSet", false)) {
+        reply(msg, new RowSet(resultSet.getColumnNames(), resultSet.getResults(), columnar));
+        return;
+      }
 
-      JsonArray queryParams = message.getJsonArray("queryParams");
-      connection.queryWithParams(message.getString("query"), queryParams, queryResult -> {
-        connection.close();
+      reply(msg, new JsonArray(resultSet.getRows()));
+    });
+  }
 
-        if (queryResult.failed()) {
-          msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), queryResult.cause().getMessage());
-          return;
-        }
+  /**
+   * Find a page of rows with keyset pagination, see {@link KeysetQuery#fromRequest(JsonObject)} for the request.
+   * If succeeded, it will return a JsonObject with the "rows" and the "nextCursor" and "previousCursor"
+   *
+   * @param msg Eventbus Message containing a JsonObject
+   */
+  private void queryFindPage(Message<JsonObject> msg) {
+    KeysetQuery keysetQuery;
+    Query query;
+    try {
+      keysetQuery = KeysetQuery.fromRequest(msg.body());
+      query = keysetQuery.getQuery();
+    } catch (IllegalArgumentException | ClassCastException e) {
+      msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), e.getMessage());
+      return;
+    }
 
-        JsonArray result = new JsonArray(queryResult.result().getRows());
-        msg.reply(result);
-      });
+    String tableName = msg.body().getString("bucket");
+    ReplicaRouter.Target target = replicaRouter.select(tableName, msg.body().getBoolean("readYourWrites", false));
+
+    queryRows(msg, target, query.getSQL(), new JsonArray(query.getBindValues()), queryResult -> {
+      if (queryResult.failed()) {
+        fail(msg, queryResult.cause());
+        return;
+      }
+
+      reply(msg, keysetQuery.toPage(queryResult.result().getRows()));
     });
   }
 
   /**
-   * Make a query on the MySQL database connected via JDBC. Available on the eventbus, address can be found in the
-   * start method
-   * If succeeded, it will return a JsonArray to the EventBus
+   * Make a query on the MySQL database connected via JDBC and stream its result. Rows are replied in chunks of
+   * "chunkSize" rows, the next chunk is only read after the caller acknowledged the previous one. Use
+   * {@link RowStreamReader} to consume this address.
+   * The statement is executed with the "stream_fetch_size" of the config, by default {@link Integer#MIN_VALUE} which
+   * makes the MariaDB driver stream the rows instead of reading the whole result into memory. The connection can't
+   * run other statements until the stream is closed.
    *
    * @param msg Eventbus Message containing a JsonObject
    */
   @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
-  private void queryFindOne(Message<JsonObject> msg) {
+  private void queryFindStream(Message<JsonObject> msg) {
     JsonObject message = msg.body();
-
-    client.getConnection(res -> {
+    String query = message.getString("query");
+    JsonArray queryParams = message.getJsonArray("queryParams", new JsonArray());
+    int chunkSize = Math.max(1, message.getInteger("chunkSize", DEFAULT_STREAM_CHUNK_SIZE));
+    int fetchSize = config().getInteger("stream_fetch_size", Integer.MIN_VALUE);
+    long deadline = Deadline.of(msg);
+    ReplicaRouter.Target target = replicaRouter.select(null, message.getBoolean("readYourWrites", false));
+
+    getConnection(msg.address(), target, res -> {
       if (res.failed()) {
+        target.release();
         msg.fail(ApiStatus.STATUS_DB_CONNECTION_FAILED.statusCode(), res.cause().getMessage());
         return;
       }
 
       SQLConnection connection = res.result();
-
-      JsonArray queryParams = message.getJsonArray("queryParams");
-      connection.queryWithParams(message.getString("query"), queryParams, queryResult -> {
+      if (Deadline.isExpired(deadline)) {
         connection.close();
+        target.release();
+        fail(msg, deadlineExceeded());
+        return;
+      }
 
-        if (queryResult.failed()) {
-          msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), queryResult.cause().getMessage());
-          return;
+      long executeStart = System.nanoTime();
+      PreparedStatement[] statement = new PreparedStatement[1];
+      vertx.<java.sql.ResultSet>executeBlocking(future -> {
+        try {
+          statement[0] = connection.<Connection>unwrap()
+            .prepareStatement(query, java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
+          statement[0].setFetchSize(fetchSize);
+          statement[0].setQueryTimeout(Deadline.queryTimeout(deadline));
+          statementHelper.fillStatement(statement[0], queryParams);
+          future.complete(statement[0].executeQuery());
+        } catch (SQLException e) {
+          closeQuietly(statement[0]);
+          future.fail(e);
         }
-
-        if (queryResult.result().getRows().isEmpty()) {
-          msg.reply(null);
+      }, false, streamResult -> {
+        recordExecute(msg.address(), query, queryParams, executeStart);
+        if (streamResult.failed()) {
+          connection.close();
+          target.release();
+          msg.fail(queryFailure(streamResult.cause()).statusCode(), streamResult.cause().getMessage());
           return;
         }
 
-        msg.reply(queryResult.result().getRows().iterator().next());
+        new RowStreamSender(vertx, msg, connection, statement[0], streamResult.result(), chunkSize)
+          .closeHandler(v -> target.release())
+          .start();
       });
     });
   }
 
+  /**
+   * Make a query on the MySQL database connected via JDBC. Available on the eventbus, address can be found in the
+   * start method
+   * If succeeded, it will return a JsonArray to the EventBus
+   *
+   * @param msg Eventbus Message containing a JsonObject
+   */
+  @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
+  private void queryFindOne(Message<JsonObject> msg) {
+    JsonObject message = msg.body();
+    String query = message.getString("query");
+    JsonArray queryParams = message.getJsonArray("queryParams", new JsonArray());
+
+    findFirstRow(msg, "findOne:" + query + ":" + queryParams.encode(), null, query, queryParams, false, null);
+  }
+
   /**
    * Make a query on the MySQL database connected via JDBC. Available on the eventbus, address can be found in the
    * start method
@@ -135,189 +308,716 @@ public class MySQLStorageVerticle extends AbstractVerticle {
    */
   @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
   private void findByPk(Message<JsonObject> msg) {
-    String tableName = msg.body().getString("bucket");
     Integer primaryKey = msg.body().getInteger("primaryKey");
+    findByColumn(msg, "findByPk", "id", primaryKey, EntityCache.primaryKey(primaryKey));
+  }
 
-    client.getConnection(res -> {
-      if (res.failed()) {
-        msg.fail(ApiStatus.STATUS_DB_CONNECTION_FAILED.statusCode(), res.cause().getMessage());
-        return;
-      }
+  /**
+   * Make a query on the MySQL database connected via JDBC. Available on the eventbus, address can be found in the
+   * start method
+   * If succeeded, it will return a JsonArray to the EventBus
+   *
+   * @param msg Eventbus Message containing a JsonObject
+   */
+  @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
+  private void findByUUID(Message<JsonObject> msg) {
+    String uuid = msg.body().getString("uuid");
+    findByColumn(msg, "findByUUID", "uuid", uuid, EntityCache.uuid(uuid));
+  }
 
-      SQLConnection connection = res.result();
+  /**
+   * Find the first row of the table in "bucket" with the value in the column, from the model cache when configured,
+   * or else from the entity cache, before querying the database. Misses of the model cache are read from the primary:
+   * the model cache is shared by all nodes, so a row of a lagging replica would be served everywhere until it expires.
+   */
+  private void findByColumn(Message<JsonObject> msg, String lookup, String column, Object value, String cacheKey) {
+    String tableName = msg.body().getString("bucket");
+    Query query = MySQL.JooqQuery.select().from(table(tableName)).where(field(column).equal(value));
+    String flightKey = lookup + ":" + tableName + ":" + value;
+
+    if (modelCache != null && modelCache.isCached(tableName) && !msg.body().getBoolean("readYourWrites", false)) {
+      modelCache.get(tableName, cacheKey, cached -> {
+        if (cached.succeeded() && cached.result() != null) {
+          reply(msg, cached.result());
+          return;
+        }
 
-      Query query = MySQL.JooqQuery.select().from(table(tableName)).where(field("id").equal(primaryKey));
-      JsonArray queryParams = new JsonArray(query.getBindValues());
+        ModelCache.Version version = modelCache.version(tableName);
+        findFirstRow(msg, flightKey, tableName, query.getSQL(), new JsonArray(query.getBindValues()), true,
+          row -> modelCache.put(tableName, cacheKey, row, version));
+      });
+      return;
+    }
 
-      connection.queryWithParams(query.getSQL(), queryParams, queryResult -> {
-        connection.close();
+    if (replyFromCache(msg, tableName, cacheKey)) {
+      return;
+    }
+    long cacheGeneration = entityCache == null ? 0 : entityCache.generation(tableName);
 
+    findFirstRow(msg, flightKey, tableName, query.getSQL(), new JsonArray(query.getBindValues()), false,
+      row -> storeInCache(tableName, cacheKey, row, cacheGeneration));
+  }
+
+  /**
+   * Find the rows of a table with the primary keys in "primaryKeys" with one query per 1000 keys.
+   * If succeeded, it will return a JsonArray with a row for every key in the same order, null for keys not found
+   *
+   * @param msg Eventbus Message containing a JsonObject
+   */
+  private void findByPks(Message<JsonObject> msg) {
+    findByKeys(msg, "id", msg.body().getJsonArray("primaryKeys", new JsonArray()), EntityCache::primaryKey);
+  }
+
+  /**
+   * Find the rows of a table with the UUIDs in "uuids" with one query per 1000 UUIDs.
+   * If succeeded, it will return a JsonArray with a row for every UUID in the same order, null for UUIDs not found
+   *
+   * @param msg Eventbus Message containing a JsonObject
+   */
+  private void findByUUIDs(Message<JsonObject> msg) {
+    findByKeys(msg, "uuid", msg.body().getJsonArray("uuids", new JsonArray()), key -> EntityCache.uuid((String) key));
+  }
+
+  private void findByKeys(Message<JsonObject> msg, String column, JsonArray keys, Function<Object, String> cacheKey) {
+    String tableName = msg.body().getString("bucket");
+    Map<String, JsonObject> rows = new HashMap<>();
+    Set<String> missingIds = new HashSet<>();
+    List<Object> missingKeys = new ArrayList<>();
+
+    for (Object key : keys) {
+      String id = String.valueOf(key);
+      if (rows.containsKey(id) || missingIds.contains(id)) {
+        continue;
+      }
+
+      JsonObject cached = entityCache == null ? null : entityCache.get(tableName, cacheKey.apply(key));
+      if (cached != null) {
+        rows.put(id, cached);
+      } else {
+        missingIds.add(id);
+        missingKeys.add(key);
+      }
+    }
+
+    if (missingKeys.isEmpty()) {
+      reply(msg, orderRows(keys, rows));
+      return;
+    }
+
+    // Bounded IN lists keep the statements small and the range optimizer from falling back to a full scan
+    long cacheGeneration = entityCache == null ? 0 : entityCache.generation(tableName);
+    List<Future<Void>> queries = new ArrayList<>();
+    for (int from = 0; from < missingKeys.size(); from += MAX_KEYS_PER_QUERY) {
+      List<Object> chunk = missingKeys.subList(from, Math.min(missingKeys.size(), from + MAX_KEYS_PER_QUERY));
+      Query query = MySQL.JooqQuery.select().from(table(tableName)).where(field(column).in(chunk));
+
+      Future<Void> queried = Future.future();
+      queries.add(queried);
+      ReplicaRouter.Target target = replicaRouter.select(tableName, msg.body().getBoolean("readYourWrites", false));
+      queryRows(msg, target, query.getSQL(), new JsonArray(query.getBindValues()), queryResult -> {
         if (queryResult.failed()) {
-          msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), queryResult.cause().getMessage());
+          queried.fail(queryResult.cause());
           return;
         }
 
-        JsonArray result = new JsonArray(queryResult.result().getRows());
-        msg.reply(result.getJsonObject(0));
+        for (JsonObject row : queryResult.result().getRows()) {
+          Object key = row.getValue(column);
+          rows.put(String.valueOf(key), row);
+          storeInCache(tableName, cacheKey.apply(key), row, cacheGeneration);
+        }
+        queried.complete();
       });
+    }
+
+    CompositeFuture.all(new ArrayList<>(queries)).setHandler(res -> {
+      if (res.failed()) {
+        fail(msg, res.cause());
+        return;
+      }
+
+      reply(msg, orderRows(keys, rows));
     });
   }
 
+  private static JsonArray orderRows(JsonArray keys, Map<String, JsonObject> rows) {
+    JsonArray result = new JsonArray();
+    for (Object key : keys) {
+      JsonObject row = rows.get(String.valueOf(key));
+      if (row == null) {
+        result.addNull();
+      } else {
+        result.add(row);
+      }
+    }
+
+    return result;
+  }
+
   /**
-   * Make a query on the MySQL database connected via JDBC. Available on the eventbus, address can be found in the
-   * start method
-   * If succeeded, it will return a JsonArray to the EventBus
+   * Reply the first row of a query, or null when there are no rows. Identical lookups arriving while the query is
+   * in flight share its result, see {@link SingleFlight}.
    *
-   * @param msg Eventbus Message containing a JsonObject
+   * @param msg         Eventbus Message to reply
+   * @param flightKey   Key identifying identical lookups
+   * @param tableName   Table the query reads from, or null when unknown
+   * @param query       SQL query
+   * @param queryParams Parameters of the SQL query
+   * @param primary     Read from the primary, also when the request doesn't ask to read its own writes
+   * @param rowHandler  Optional handler called with a found row before it is replied
    */
-  @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
-  private void findByUUID(Message<JsonObject> msg) {
-    String tableName = msg.body().getString("bucket");
-    String uuid = msg.body().getString("uuid");
+  private void findFirstRow(Message<JsonObject> msg, String flightKey, String tableName, String query,
+                            JsonArray queryParams, boolean primary, Handler<JsonObject> rowHandler) {
+    boolean readYourWrites = primary || msg.body().getBoolean("readYourWrites", false);
+    if (readYourWrites) {
+      flightKey += ":primary";
+    }
+
+    SingleFlight.Flight flight = singleFlight.join(flightKey, tableName, msg);
+    if (flight == null) {
+      return;
+    }
+
+    ReplicaRouter.Target target = replicaRouter.select(tableName, readYourWrites);
+    queryRows(msg, target, query, queryParams, queryResult -> {
+      if (queryResult.failed()) {
+        flight.fail(((ReplyException) queryResult.cause()).failureCode(), queryResult.cause().getMessage());
+        return;
+      }
+
+      if (queryResult.result().getNumRows() == 0) {
+        metrics.timeReply(msg.address(), () -> flight.reply(null));
+        return;
+      }
+
+      JsonObject row = queryResult.result().getRows().get(0);
+      if (rowHandler != null) {
+        rowHandler.handle(row);
+      }
+      metrics.timeReply(msg.address(), () -> flight.reply(row));
+    });
+  }
 
-    client.getConnection(res -> {
+  /**
+   * Run a query on a pooled connection of the selected data source, which is released afterwards. Failures are
+   * passed on as a {@link ReplyException} with the {@link ApiStatus} code to fail the request with.
+   *
+   * @param msg Eventbus Message of the request, for its {@link Deadline} and the metrics of its address
+   */
+  private void queryRows(Message<JsonObject> msg, ReplicaRouter.Target target, String query, JsonArray queryParams,
+                         Handler<AsyncResult<ResultSet>> handler) {
+    getConnection(msg.address(), target, res -> {
       if (res.failed()) {
-        msg.fail(ApiStatus.STATUS_DB_CONNECTION_FAILED.statusCode(), res.cause().getMessage());
+        target.release();
+        handler.handle(Future.failedFuture(replyException(ApiStatus.STATUS_DB_CONNECTION_FAILED, res.cause())));
         return;
       }
 
       SQLConnection connection = res.result();
+      if (!applyDeadline(connection, Deadline.of(msg))) {
+        target.release();
+        handler.handle(Future.failedFuture(deadlineExceeded()));
+        return;
+      }
 
-      Query query = MySQL.JooqQuery.select().from(table(tableName)).where(field("uuid").equal(uuid));
-      JsonArray queryParams = new JsonArray(query.getBindValues());
-
-      connection.queryWithParams(query.getSQL(), queryParams, queryResult -> {
+      long executeStart = System.nanoTime();
+      connection.queryWithParams(query, queryParams, queryResult -> {
+        recordExecute(msg.address(), query, queryParams, executeStart);
         connection.close();
+        target.release();
 
         if (queryResult.failed()) {
-          msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), queryResult.cause().getMessage());
-          return;
-        }
-
-        JsonArray result = new JsonArray(queryResult.result().getRows());
-        if (result.isEmpty()) {
-          msg.reply(null);
+          handler.handle(Future.failedFuture(replyException(queryFailure(queryResult.cause()), queryResult.cause())));
           return;
         }
 
-        msg.reply(result.getJsonObject(0));
+        handler.handle(Future.succeededFuture(queryResult.result()));
       });
     });
   }
 
-  @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
+  /**
+   * Execute a single update statement. With "insert_coalescing" configured, single row INSERTs are handed to the
+   * {@link InsertCoalescer} first.
+   *
+   * @param msg Eventbus Message containing a JsonObject
+   */
   private void queryUpdate(Message<JsonObject> msg) {
+    if (insertCoalescer != null && insertCoalescer.offer(msg)) {
+      return;
+    }
+
+    executeUpdate(msg);
+  }
+
+  @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
+  private void executeUpdate(Message<JsonObject> msg) {
     JsonObject message = msg.body();
+    ReplicaRouter.Target target = replicaRouter.primary();
 
-    client.getConnection(res -> {
+    getConnection(msg.address(), target, res -> {
       if (res.failed()) {
+        target.release();
         msg.fail(ApiStatus.STATUS_DB_CONNECTION_FAILED.statusCode(), res.cause().getMessage());
         return;
       }
 
       SQLConnection connection = res.result();
+      if (!applyDeadline(connection, Deadline.of(msg))) {
+        target.release();
+        fail(msg, deadlineExceeded());
+        return;
+      }
 
       JsonArray queryParams = message.getJsonArray("queryParams");
+      long executeStart = System.nanoTime();
       connection.updateWithParams(message.getString("query"), queryParams, queryResult -> {
+        recordExecute(msg.address(), message.getString("query"), queryParams, executeStart);
         connection.close();
+        target.release();
 
         if (queryResult.failed()) {
-          msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), queryResult.cause().getMessage());
+          msg.fail(queryFailure(queryResult.cause()).statusCode(), queryResult.cause().getMessage());
           return;
         }
 
-        msg.reply(queryResult.result().toJson());
+        afterWrite(message.getString("query"));
+        reply(msg, queryResult.result().toJson());
       });
     });
   }
 
+  /**
+   * Run "queries" with the matching "queryParams" in order and in one transaction. The first failing statement rolls
+   * back the transaction. All statements run on the same connection within one blocking call, after which the
+   * connection is returned to the pool.
+   * If succeeded, it replies the "updated" and "keys" of the last statement and the result of every statement in
+   * "results".
+   *
+   * @param msg Eventbus Message containing a JsonObject
+   */
   @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
   private void queryUpdateTransactional(Message<JsonObject> msg) {
     JsonObject message = msg.body();
 
-    JsonArray queries = message.getJsonArray("queries");
-    JsonArray queryParams = message.getJsonArray("queryParams");
+    TransactionalUpdate transaction = new TransactionalUpdate(
+      message.getJsonArray("queries", new JsonArray()),
+      message.getJsonArray("queryParams")
+    ).deadline(Deadline.of(msg));
 
-    client.getConnection(res -> {
-      if (res.failed()) {
-        msg.fail(ApiStatus.STATUS_DB_CONNECTION_FAILED.statusCode(), res.cause().getMessage());
+    runTransaction(msg.address(), transaction, transactionResult -> {
+      if (transactionResult.failed()) {
+        fail(msg, transactionResult.cause());
         return;
       }
 
-      SQLConnection connection = res.result();
+      List<UpdateResult> results = transactionResult.result();
+      JsonObject lastResult = results.isEmpty() ? new UpdateResult().toJson() : results.get(results.size() - 1).toJson();
+      JsonArray resultsJson = new JsonArray();
+      results.forEach(result -> resultsJson.add(result.toJson()));
 
-      connection.setAutoCommit(false, autoCommitRes -> {
-        if (autoCommitRes.failed()) {
-          msg.fail(ApiStatus.STATUS_DB_AUTO_COMMIT_FAILED.statusCode(), res.cause().getMessage());
-          return;
-        }
+      reply(msg, lastResult.put("results", resultsJson));
+    });
+  }
 
-        Iterator queriesIterator = queries.iterator();
-        int iteratorPosition = 0;
-        while (queriesIterator.hasNext()) {
-          String query = (String) queriesIterator.next();
+  /**
+   * Run a {@link TransactionalUpdate} on a pooled connection within one blocking call. Failures are passed on as a
+   * {@link ReplyException} with the {@link ApiStatus} code to fail the request with.
+   */
+  private void runTransaction(String address, TransactionalUpdate transaction,
+                              Handler<AsyncResult<List<UpdateResult>>> handler) {
+    ReplicaRouter.Target target = replicaRouter.primary();
 
-          connection.updateWithParams(query, queryParams.getJsonArray(iteratorPosition), updateRes -> {
-            if (updateRes.failed()) {
-              msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), updateRes.cause().getMessage());
-              return;
-            }
+    getConnection(address, target, res -> {
+      if (res.failed()) {
+        target.release();
+        handler.handle(Future.failedFuture(replyException(ApiStatus.STATUS_DB_CONNECTION_FAILED, res.cause())));
+        return;
+      }
 
-            this.lastResult = updateRes;
-          });
+      SQLConnection connection = res.result();
+      if (Deadline.isExpired(transaction.getDeadline())) {
+        connection.close();
+        target.release();
+        handler.handle(Future.failedFuture(deadlineExceeded()));
+        return;
+      }
 
-          iteratorPosition++;
-        }
+      long executeStart = System.nanoTime();
+      vertx.<List<UpdateResult>>executeBlocking(
+        future -> {
+          try {
+            future.complete(transaction.execute(connection.unwrap(), statementHelper));
+          } catch (SQLException e) {
+            future.fail(e);
+          }
+        },
+        false,
+        transactionResult -> {
+          metrics.recordExecute(address, System.nanoTime() - executeStart);
+          if (slowQueryLog != null) {
+            for (int i = 0; i < transaction.getQueries().size(); i++) {
+              // Statements after a failing one didn't run
+              if (transaction.getDurations()[i] > 0) {
+                slowQueryLog.record(transaction.getQueries().get(i), transaction.getDurations()[i]);
+              }
+            }
+          }
+          connection.close();
+          target.release();
 
-        connection.commit(commitResult -> {
-          if (commitResult.failed()) {
-            msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), commitResult.cause().getMessage());
+          if (transactionResult.failed()) {
+            handler.handle(Future.failedFuture(
+              replyException(queryFailure(transactionResult.cause()), transactionResult.cause())
+            ));
             return;
           }
 
-          msg.reply(this.lastResult.result().toJson());
-          return;
-        });
-      });
+          transaction.getQueries().forEach(this::afterWrite);
+          handler.handle(Future.succeededFuture(transactionResult.result()));
+        }
+      );
     });
   }
 
-  private void queryBatch(Message<JsonObject> msg) {
-    JsonObject request = msg.body();
+  /**
+   * Execute one SQL template for every parameter array in "queryParams" in one transaction, using JDBC batching.
+   * With "multiRowInsert" enabled an INSERT template is rewritten to multi-row INSERTs of at most
+   * "multiRowInsertSize" rows, so a bulk load takes a few statements instead of one per row.
+   * If succeeded, it replies the total rows "updated", the generated "keys" of multi-row INSERTs and the update
+   * "counts" per parameter array when batching.
+   *
+   * @param msg Eventbus Message containing a JsonObject
+   */
+  @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
+  private void queryBatchWithParams(Message<JsonObject> msg) {
+    JsonObject message = msg.body();
+    String query = message.getString("query");
+
+    JsonArray queryParams = message.getJsonArray("queryParams", new JsonArray());
+    List<JsonArray> batchParams = new ArrayList<>(queryParams.size());
+    for (int i = 0; i < queryParams.size(); i++) {
+      batchParams.add(queryParams.getJsonArray(i));
+    }
+
+    if (message.getBoolean("multiRowInsert", false)) {
+      MultiRowInsert insert = MultiRowInsert.parse(query);
+      if (insert != null) {
+        int multiRowInsertSize = message.getInteger("multiRowInsertSize", DEFAULT_MULTI_ROW_INSERT_SIZE);
+        queryMultiRowInsert(msg, insert, batchParams, multiRowInsertSize);
+        return;
+      }
+    }
 
-    List queries = Arrays.asList(request.getString("queries").split(";"));
-    final List[] result = new List[1];
+    ReplicaRouter.Target target = replicaRouter.primary();
 
-    client.getConnection(res -> {
+    getConnection(msg.address(), target, res -> {
       if (res.failed()) {
+        target.release();
         msg.fail(ApiStatus.STATUS_DB_CONNECTION_FAILED.statusCode(), res.cause().getMessage());
         return;
       }
 
       SQLConnection connection = res.result();
+      if (!applyDeadline(connection, Deadline.of(msg))) {
+        target.release();
+        fail(msg, deadlineExceeded());
+        return;
+      }
 
+      long executeStart = System.nanoTime();
       connection.setAutoCommit(false, autoCommitRes -> {
         if (autoCommitRes.failed()) {
-          msg.fail(ApiStatus.STATUS_DB_AUTO_COMMIT_FAILED.statusCode(), res.cause().getMessage());
+          connection.close();
+          target.release();
+          msg.fail(ApiStatus.STATUS_DB_AUTO_COMMIT_FAILED.statusCode(), autoCommitRes.cause().getMessage());
           return;
         }
 
-        connection.batch(queries, updateRes -> {
-          if (updateRes.failed()) {
-            msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), updateRes.cause().getMessage());
-            return;
-          }
-          result[0] = updateRes.result();
-        }).commit(commitResult -> {
-          if (commitResult.failed()) {
-            msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), commitResult.cause().getMessage());
+        connection.batchWithParams(query, batchParams, batchResult -> {
+          if (batchResult.failed()) {
+            connection.rollback(rollbackResult -> connection.setAutoCommit(true, restoreResult -> {
+              recordExecute(msg.address(), query, null, executeStart);
+              connection.close();
+              target.release();
+              msg.fail(queryFailure(batchResult.cause()).statusCode(), batchResult.cause().getMessage());
+            }));
             return;
           }
 
-          msg.reply(new JsonArray(result[0]));
+          connection.commit(commitResult -> connection.setAutoCommit(true, restoreResult -> {
+            recordExecute(msg.address(), query, null, executeStart);
+            connection.close();
+            target.release();
+
+            if (commitResult.failed()) {
+              msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), commitResult.cause().getMessage());
+              return;
+            }
+
+            afterWrite(query);
+
+            int updated = 0;
+            for (Integer count : batchResult.result()) {
+              updated += Math.max(0, count);
+            }
+
+            reply(msg, new JsonObject()
+              .put("updated", updated)
+              .put("keys", new JsonArray())
+              .put("counts", new JsonArray(batchResult.result())));
+          }));
         });
+      });
+    });
+  }
+
+  private void queryMultiRowInsert(Message<JsonObject> msg, MultiRowInsert insert, List<JsonArray> batchParams,
+                                   int multiRowInsertSize) {
+    JsonArray queries = new JsonArray();
+    JsonArray queryParams = new JsonArray();
+
+    try {
+      insert.flatten(batchParams, insert.getMaxRows(multiRowInsertSize)).forEach(params -> {
+        queries.add(insert.getQuery(insert.getRowCount(params)));
+        queryParams.add(params);
+      });
+    } catch (IllegalArgumentException e) {
+      msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), e.getMessage());
+      return;
+    }
+
+    TransactionalUpdate transaction = new TransactionalUpdate(queries, queryParams).deadline(Deadline.of(msg));
+    runTransaction(msg.address(), transaction, transactionResult -> {
+      if (transactionResult.failed()) {
+        fail(msg, transactionResult.cause());
+        return;
+      }
+
+      int updated = 0;
+      JsonArray keys = new JsonArray();
+      for (UpdateResult result : transactionResult.result()) {
+        updated += result.getUpdated();
+        keys.addAll(result.getKeys());
+      }
+
+      reply(msg, new JsonObject().put("updated", updated).put("keys", keys));
+    });
+  }
+
+  /**
+   * Insert groups of rows with multi-row INSERTs in one transaction, rows referencing the generated keys of rows of
+   * earlier groups, see {@link BulkInsert} for the request.
+   * If succeeded, it replies the total rows "updated" and the generated "keys" per group
+   *
+   * @param msg Eventbus Message containing a JsonObject
+   */
+  private void queryBulkInsert(Message<JsonObject> msg) {
+    BulkInsert insert;
+    try {
+      insert = BulkInsert.fromRequest(msg.body(), DEFAULT_MULTI_ROW_INSERT_SIZE);
+    } catch (IllegalArgumentException | ClassCastException e) {
+      msg.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), e.getMessage());
+      return;
+    }
+    insert.deadline(Deadline.of(msg));
+
+    runTransaction(msg.address(), insert, transactionResult -> {
+      if (transactionResult.failed()) {
+        fail(msg, transactionResult.cause());
+        return;
+      }
+
+      int updated = 0;
+      for (UpdateResult result : transactionResult.result()) {
+        updated += result.getUpdated();
+      }
+
+      reply(msg, new JsonObject().put("updated", updated).put("keys", insert.getKeys(transactionResult.result())));
+    });
+  }
+
+  /**
+   * Split the queries on ";" and execute them in order in one transaction, see {@link TransactionalUpdate}.
+   * If succeeded, it replies a JsonArray with the updated rows per query
+   *
+   * @param msg Eventbus Message containing a JsonObject
+   * @deprecated Splitting on ";" breaks on literals containing a semicolon and doesn't allow bind parameters, use
+   * db.mysql.query.batchWithParams instead
+   */
+  @Deprecated
+  private void queryBatch(Message<JsonObject> msg) {
+    JsonArray queries = new JsonArray();
+    for (String query : msg.body().getString("queries", "").split(";")) {
+      if (!query.trim().isEmpty()) {
+        queries.add(query);
+      }
+    }
+
+    TransactionalUpdate transaction = new TransactionalUpdate(queries, null).deadline(Deadline.of(msg));
+    runTransaction(msg.address(), transaction, transactionResult -> {
+      if (transactionResult.failed()) {
+        fail(msg, transactionResult.cause());
+        return;
+      }
+
+      JsonArray counts = new JsonArray();
+      transactionResult.result().forEach(result -> counts.add(result.getUpdated()));
+
+      reply(msg, counts);
+    });
+  }
+
+  private boolean replyFromCache(Message<JsonObject> msg, String tableName, String cacheKey) {
+    if (entityCache == null || msg.body().getBoolean("readYourWrites", false)) {
+      return false;
+    }
+
+    JsonObject row = entityCache.get(tableName, cacheKey);
+    if (row == null) {
+      return false;
+    }
+
+    reply(msg, row);
+    return true;
+  }
+
+  private void storeInCache(String tableName, String cacheKey, JsonObject row, long cacheGeneration) {
+    if (entityCache != null) {
+      entityCache.put(tableName, cacheKey, row, cacheGeneration);
+    }
+  }
+
+  /**
+   * Drops cached rows and detaches in flight lookups of the table written by the given statement, or of all tables
+   * when the table is unknown. Called after a successful write only, so failed writes cause no invalidation traffic;
+   * the model cache is only invalidated for the tables it caches.
+   */
+  private void afterWrite(String query) {
+    String tableName = MySQL.getWriteTable(query);
+    singleFlight.detach(tableName);
+    replicaRouter.markWritten(tableName);
+
+    if (entityCache != null) {
+      entityCache.invalidate(tableName);
+    }
+    if (modelCache != null && modelCache.isCached(tableName)) {
+      modelCache.invalidate(tableName);
+    }
+  }
+
+  /**
+   * Borrow a connection of the data source and record the time it took for the address.
+   */
+  private void getConnection(String address, ReplicaRouter.Target target,
+                             Handler<AsyncResult<SQLConnection>> handler) {
+    long start = System.nanoTime();
+    target.getConnection(res -> {
+      metrics.recordAcquire(address, System.nanoTime() - start);
+      handler.handle(res);
+    });
+  }
+
+  /**
+   * Record the execution time of a statement for the address and in the slow query log, which may ask to explain it.
+   */
+  private void recordExecute(String address, String query, JsonArray queryParams, long executeStart) {
+    long nanos = System.nanoTime() - executeStart;
+    metrics.recordExecute(address, nanos);
+
+    if (slowQueryLog != null && slowQueryLog.record(query, nanos)) {
+      explain(query, queryParams);
+    }
+  }
+
+  /**
+   * Run EXPLAIN for a slow query in the background and hand the plan to the slow query log.
+   */
+  private void explain(String query, JsonArray queryParams) {
+    ReplicaRouter.Target target = replicaRouter.select(null, false);
+
+    getConnection("db.mysql.explain", target, res -> {
+      if (res.failed()) {
+        target.release();
+        slowQueryLog.explained(query, null);
+        return;
+      }
 
+      SQLConnection connection = res.result();
+      connection.queryWithParams("EXPLAIN " + query, queryParams == null ? new JsonArray() : queryParams, result -> {
+        connection.close();
+        target.release();
+        slowQueryLog.explained(query, result.succeeded() ? result.result().getRows() : null);
       });
     });
   }
+
+  private void reply(Message<JsonObject> msg, Object reply) {
+    metrics.timeReply(msg.address(), () -> msg.reply(reply));
+  }
+
+  /**
+   * The metrics of this verticle instance, which are its own: every instance has its pools and histograms.
+   */
+  private JsonObject metricsReport() {
+    return new JsonObject()
+      .put("instance", instanceId)
+      .put("addresses", metrics.toJson())
+      .put("pools", replicaRouter.stats());
+  }
+
+  /**
+   * Use the time left until the deadline as query timeout of the connection.
+   *
+   * @return false when the deadline passed while waiting for the connection, which is closed again by then
+   */
+  private static boolean applyDeadline(SQLConnection connection, long deadline) {
+    if (Deadline.isExpired(deadline)) {
+      connection.close();
+      return false;
+    }
+
+    connection.setQueryTimeout(Deadline.queryTimeout(deadline));
+    return true;
+  }
+
+  private static void closeQuietly(Statement statement) {
+    if (statement == null) {
+      return;
+    }
+
+    try {
+      statement.close();
+    } catch (SQLException ignored) {
+      // The statement failed already
+    }
+  }
+
+  private static ReplyException deadlineExceeded() {
+    return new ReplyException(
+      ReplyFailure.RECIPIENT_FAILURE,
+      ApiStatus.STATUS_DB_DEADLINE_EXCEEDED.statusCode(),
+      "Deadline exceeded before the query was executed"
+    );
+  }
+
+  /**
+   * The status to fail a request with when its query failed, queries cancelled by their timeout exceeded the deadline.
+   */
+  private static ApiStatus queryFailure(Throwable cause) {
+    return cause instanceof SQLTimeoutException ?
+      ApiStatus.STATUS_DB_DEADLINE_EXCEEDED : ApiStatus.STATUS_DB_QUERY_FAILURE;
+  }
+
+  private static ReplyException replyException(ApiStatus apiStatus, Throwable cause) {
+    return new ReplyException(ReplyFailure.RECIPIENT_FAILURE, apiStatus.statusCode(), cause.getMessage());
+  }
+
+  private static void fail(Message<?> msg, Throwable cause) {
+    if (cause instanceof ReplyException) {
+      msg.fail(((ReplyException) cause).failureCode(), cause.getMessage());
+      return;
+    }
+
+    msg.fail(ApiStatus.STATUS_DB_FAILURE.statusCode(), cause.getMessage());
+  }
 }
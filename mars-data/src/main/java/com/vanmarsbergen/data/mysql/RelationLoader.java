@@ -0,0 +1,170 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import com.vanmarsbergen.mars.data.Relation;
+import com.vanmarsbergen.mars.data.impl.ModelImpl;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.jooq.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.table;
+
+/**
+ * Loads the declared relations of many models at once, see {@link ModelImpl#relations()}. Every level of the relation
+ * paths is resolved with one db.mysql.query.find request per relation, with the keys of all models in an IN list,
+ * instead of one request per model:
+ *
+ * new RelationLoader(vertx).load(projects, Arrays.asList("owner", "tags", "owner.company"), res -> ...)
+ *
+ * loads the owners and the tags of all projects with one query each, and then the companies of all owners with one
+ * query. The loaded models are set on the relations of their models with {@link ModelImpl#putRelation}.
+ */
+public class RelationLoader {
+  private static final int MAX_KEYS_PER_QUERY = 1000;
+
+  private final Vertx vertx;
+
+  public RelationLoader(Vertx vertx) {
+    this.vertx = vertx;
+  }
+
+  /**
+   * Load the relation paths of the models, relation names separated by dots. Models without a relation of the path
+   * are skipped.
+   */
+  public void load(List<? extends ModelImpl> models, Collection<String> paths, Handler<AsyncResult<Void>> handler) {
+    Map<String, Set<String>> nestedPaths = new LinkedHashMap<>();
+    for (String path : paths) {
+      int dot = path.indexOf('.');
+      String name = dot < 0 ? path : path.substring(0, dot);
+      Set<String> nested = nestedPaths.computeIfAbsent(name, key -> new LinkedHashSet<>());
+      if (dot > -1) {
+        nested.add(path.substring(dot + 1));
+      }
+    }
+
+    List<Future<Void>> loads = new ArrayList<>();
+    nestedPaths.forEach((name, nested) -> {
+      Map<Relation, List<ModelImpl>> relationModels = new LinkedHashMap<>();
+      for (ModelImpl model : models) {
+        Relation relation = model.relations().get(name);
+        if (relation != null) {
+          relationModels.computeIfAbsent(relation, key -> new ArrayList<>()).add(model);
+        }
+      }
+
+      relationModels.forEach((relation, relationOf) -> {
+        Future<Void> load = Future.future();
+        loads.add(load);
+        loadRelation(relation, relationOf, res -> {
+          if (res.failed() || nested.isEmpty()) {
+            load.handle(res.map((Void) null));
+            return;
+          }
+
+          load(res.result(), nested, load);
+        });
+      });
+    });
+
+    CompositeFuture.all(new ArrayList<>(loads)).setHandler(res -> handler.handle(res.map((Void) null)));
+  }
+
+  /**
+   * Load one relation of the models and reply the distinct related models, to load the nested paths of.
+   */
+  private void loadRelation(Relation relation, List<ModelImpl> models, Handler<AsyncResult<List<ModelImpl>>> handler) {
+    Map<String, Object> keys = new LinkedHashMap<>();
+    for (ModelImpl model : models) {
+      Object key = model.getValue(relation.getKeyColumn(model));
+      if (key != null) {
+        keys.putIfAbsent(String.valueOf(key), key);
+      }
+    }
+
+    Map<String, List<ModelImpl>> related = new HashMap<>();
+    if (keys.isEmpty()) {
+      handler.handle(Future.succeededFuture(stitch(relation, models, related)));
+      return;
+    }
+
+    List<Object> keyList = new ArrayList<>(keys.values());
+    List<Future<Void>> queries = new ArrayList<>();
+    for (int from = 0; from < keyList.size(); from += MAX_KEYS_PER_QUERY) {
+      List<Object> chunk = keyList.subList(from, Math.min(keyList.size(), from + MAX_KEYS_PER_QUERY));
+      Query query = MySQL.JooqQuery
+        .select()
+        .from(table(relation.getTableName()))
+        .where(field(relation.getLookupColumn()).in(chunk));
+      JsonObject request = new JsonObject()
+        .put("query", query.getSQL())
+        .put("queryParams", new JsonArray(query.getBindValues()));
+
+      Future<Void> queried = Future.future();
+      queries.add(queried);
+      vertx.eventBus().<JsonArray>send("db.mysql.query.find", request, reply -> {
+        if (reply.failed()) {
+          queried.fail(reply.cause());
+          return;
+        }
+
+        for (Object row : reply.result().body()) {
+          ModelImpl model = relation.newModel();
+          model.set((JsonObject) row);
+          String key = String.valueOf(((JsonObject) row).getValue(relation.getLookupColumn()));
+          related.computeIfAbsent(key, k -> new ArrayList<>()).add(model);
+        }
+        queried.complete();
+      });
+    }
+
+    CompositeFuture.all(new ArrayList<>(queries)).setHandler(res -> {
+      if (res.failed()) {
+        handler.handle(Future.failedFuture(res.cause()));
+        return;
+      }
+
+      handler.handle(Future.succeededFuture(stitch(relation, models, related)));
+    });
+  }
+
+  /**
+   * Set the related models on the models, an empty list for to-many relations without models. Models that share a
+   * related model get the same instance.
+   */
+  private static List<ModelImpl> stitch(Relation relation, List<ModelImpl> models,
+                                        Map<String, List<ModelImpl>> related) {
+    Map<ModelImpl, Boolean> distinct = new IdentityHashMap<>();
+    for (ModelImpl model : models) {
+      Object key = model.getValue(relation.getKeyColumn(model));
+      List<ModelImpl> relatedModels = key == null ? null : related.get(String.valueOf(key));
+
+      if (relation.isToMany()) {
+        model.putRelation(relation.getName(), relatedModels == null ? new ArrayList<>() : relatedModels);
+      } else if (relatedModels != null) {
+        model.putRelation(relation.getName(), relatedModels.get(0));
+      }
+
+      if (relatedModels != null) {
+        relatedModels.forEach(relatedModel -> distinct.put(relatedModel, true));
+      }
+    }
+
+    return new ArrayList<>(distinct.keySet());
+  }
+}
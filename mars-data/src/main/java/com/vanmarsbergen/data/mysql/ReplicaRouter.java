@@ -0,0 +1,184 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.SQLConnection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the data source for read queries: the primary or one of the read replicas. Writes always use the primary,
+ * see {@link #primary()}.
+ *
+ * Replicas are picked round-robin or by the least outstanding queries ("read_routing"). Reads go to the primary when
+ * the request asks to read its own writes, when no replica is configured, or when the table was written less than
+ * "replica_lag" milliseconds ago. That keeps rows stored in the entity cache from being older than the last write only
+ * while the real lag of the replicas stays below "replica_lag"; a replica lagging further behind serves older rows.
+ * Use it from the context of its verticle. It only knows the writes of that verticle instance, so after a write
+ * through another instance reads may still go to a replica.
+ */
+public class ReplicaRouter {
+  public static final String ROUND_ROBIN = "round_robin";
+  public static final String LEAST_OUTSTANDING = "least_outstanding";
+  private static final long DEFAULT_REPLICA_LAG = 1000;
+
+  private final Target primary;
+  private final List<Target> replicas = new ArrayList<>();
+  private final boolean leastOutstanding;
+  private final long replicaLag;
+  private final Map<String, Long> lastWrites = new HashMap<>();
+  private long lastUnknownWrite = 0;
+  private int next = 0;
+
+  /**
+   * @param primary  Client of the primary data source
+   * @param replicas Clients of the read replicas, may be empty
+   * @param config   JsonObject with "read_routing" and "replica_lag"
+   */
+  public ReplicaRouter(JDBCClient primary, List<JDBCClient> replicas, JsonObject config) {
+    this.primary = new Target("primary", primary);
+    for (int i = 0; i < replicas.size(); i++) {
+      this.replicas.add(new Target("replica-" + i, replicas.get(i)));
+    }
+    this.leastOutstanding = LEAST_OUTSTANDING.equals(config.getString("read_routing", ROUND_ROBIN));
+    this.replicaLag = config.getLong("replica_lag", DEFAULT_REPLICA_LAG);
+  }
+
+  /**
+   * Select the data source for a read and count it as outstanding until {@link Target#release()} is called.
+   *
+   * @param tableName      Table the query reads from, or null when unknown
+   * @param readYourWrites Force the primary
+   */
+  public Target select(String tableName, boolean readYourWrites) {
+    if (replicas.isEmpty() || readYourWrites || recentlyWritten(tableName)) {
+      return primary.acquire();
+    }
+
+    next = (next + 1) % replicas.size();
+    Target selected = replicas.get(next);
+
+    if (leastOutstanding) {
+      for (Target replica : replicas) {
+        if (replica.outstanding < selected.outstanding) {
+          selected = replica;
+        }
+      }
+    }
+
+    return selected.acquire();
+  }
+
+  /**
+   * Select the primary, for writes. It's counted as outstanding until {@link Target#release()} is called.
+   */
+  public Target primary() {
+    return primary.acquire();
+  }
+
+  /**
+   * Remember a write, reads of the table go to the primary for the replica lag. A null table name means the written
+   * table is unknown.
+   */
+  public void markWritten(String tableName) {
+    if (replicas.isEmpty()) {
+      return;
+    }
+
+    if (tableName == null) {
+      lastUnknownWrite = System.currentTimeMillis();
+      return;
+    }
+
+    lastWrites.put(tableName, System.currentTimeMillis());
+  }
+
+  public JsonObject stats() {
+    JsonArray replicaStats = new JsonArray();
+    replicas.forEach(replica -> replicaStats.add(replica.stats()));
+
+    return new JsonObject()
+      .put("primary", primary.stats())
+      .put("replicas", replicaStats);
+  }
+
+  public void close() {
+    replicas.forEach(replica -> replica.client.close());
+  }
+
+  private boolean recentlyWritten(String tableName) {
+    long since = System.currentTimeMillis() - replicaLag;
+    if (lastUnknownWrite > since) {
+      return true;
+    }
+
+    if (tableName == null) {
+      return false;
+    }
+
+    Long lastWrite = lastWrites.get(tableName);
+    return lastWrite != null && lastWrite > since;
+  }
+
+  /**
+   * A data source with the requests using it. Besides the outstanding requests it keeps the pool gauges: "active"
+   * connections are borrowed by a request and "waiters" are requests waiting for a connection. The idle connections
+   * aren't reported, the JDBC client doesn't expose its pool.
+   */
+  public static class Target {
+    private final String name;
+    private final JDBCClient client;
+    private int outstanding = 0;
+    private int waiters = 0;
+    private long requests = 0;
+
+    private Target(String name, JDBCClient client) {
+      this.name = name;
+      this.client = client;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public JDBCClient getClient() {
+      return client;
+    }
+
+    /**
+     * Borrow a connection from the pool of the data source, counted as waiter until the pool hands it out.
+     */
+    public void getConnection(Handler<AsyncResult<SQLConnection>> handler) {
+      waiters++;
+      client.getConnection(res -> {
+        waiters--;
+        handler.handle(res);
+      });
+    }
+
+    public void release() {
+      outstanding--;
+    }
+
+    private Target acquire() {
+      outstanding++;
+      requests++;
+      return this;
+    }
+
+    private JsonObject stats() {
+      return new JsonObject()
+        .put("name", name)
+        .put("outstanding", outstanding)
+        .put("requests", requests)
+        .put("active", outstanding - waiters)
+        .put("waiters", waiters);
+    }
+  }
+}
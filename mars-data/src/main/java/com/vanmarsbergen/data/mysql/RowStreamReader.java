@@ -0,0 +1,86 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Client side of the db.mysql.query.find.stream address, see {@link RowStreamSender} for the protocol.
+ */
+public class RowStreamReader {
+  public static final String ADDRESS = "db.mysql.query.find.stream";
+
+  /**
+   * Stream the rows of a query in chunks. The next chunk is requested as soon as the chunk handler returns.
+   *
+   * @param eventBus     Eventbus to send the request on
+   * @param request      JsonObject with "query", "queryParams" and optionally "chunkSize"
+   * @param chunkHandler Called with a JsonArray of rows for every chunk
+   * @param endHandler   Called once when all rows are handled or the stream failed
+   */
+  public static void find(EventBus eventBus, JsonObject request, Handler<JsonArray> chunkHandler,
+                          Handler<AsyncResult<Void>> endHandler) {
+    find(eventBus, request, (rows, ready) -> {
+      chunkHandler.handle(rows);
+      ready.complete();
+    }, endHandler);
+  }
+
+  /**
+   * Stream the rows of a query in chunks. The next chunk is only requested when the future passed to the chunk
+   * handler completes, failing it cancels the query.
+   *
+   * @param eventBus     Eventbus to send the request on
+   * @param request      JsonObject with "query", "queryParams" and optionally "chunkSize"
+   * @param chunkHandler Called with a JsonArray of rows and a future to complete when ready for more
+   * @param endHandler   Called once when all rows are handled or the stream failed
+   */
+  public static void find(EventBus eventBus, JsonObject request, BiConsumer<JsonArray, Future<Void>> chunkHandler,
+                          Handler<AsyncResult<Void>> endHandler) {
+    eventBus.<JsonObject>send(ADDRESS, request, reply -> handleChunk(reply, chunkHandler, endHandler));
+  }
+
+  private static void handleChunk(AsyncResult<Message<JsonObject>> reply,
+                                  BiConsumer<JsonArray, Future<Void>> chunkHandler,
+                                  Handler<AsyncResult<Void>> endHandler) {
+    if (reply.failed()) {
+      endHandler.handle(Future.failedFuture(reply.cause()));
+      return;
+    }
+
+    Message<JsonObject> message = reply.result();
+    JsonArray rows = message.body().getJsonArray("rows", new JsonArray());
+    boolean last = message.body().getBoolean("last", true);
+
+    Future<Void> ready = Future.future();
+    ready.setHandler(readyResult -> {
+      if (readyResult.failed()) {
+        if (!last) {
+          message.reply(new JsonObject().put("cancel", true));
+        }
+        endHandler.handle(Future.failedFuture(readyResult.cause()));
+        return;
+      }
+
+      if (last) {
+        endHandler.handle(Future.succeededFuture());
+        return;
+      }
+
+      message.<JsonObject>reply(new JsonObject(), next -> handleChunk(next, chunkHandler, endHandler));
+    });
+
+    if (rows.isEmpty()) {
+      ready.complete();
+      return;
+    }
+
+    chunkHandler.accept(rows, ready);
+  }
+}
@@ -0,0 +1,189 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import com.vanmarsbergen.mars.core.api.ApiStatus;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.impl.actions.JDBCStatementHelper;
+import io.vertx.ext.sql.SQLConnection;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Sends the rows of a JDBC {@link ResultSet} back over the eventbus in chunks.
+ *
+ * Every chunk is a reply on the previous message: the first chunk replies to the request, every next chunk replies
+ * to the acknowledgement the caller sent for the chunk before. Chunks are read from the result set on a worker
+ * thread, the next one while the caller handles the one before, and no further until that acknowledgement arrives.
+ * The result set must be streamed by the driver, for MariaDB by executing it with a fetch size of
+ * {@link Integer#MIN_VALUE}, so at most two chunks per request are held in memory. A caller that answers with
+ * {"cancel": true}, or doesn't answer within the send timeout, ends the stream and returns the connection to the pool.
+ *
+ * Chunks look like {"rows": [...], "last": false}; the final chunk has "last" set to true.
+ */
+public class RowStreamSender {
+  private final Vertx vertx;
+  private final SQLConnection connection;
+  private final Statement statement;
+  private final ResultSet resultSet;
+  private final int chunkSize;
+
+  private Message<JsonObject> current;
+  private String[] columns;
+  private JsonArray chunk;
+  private Throwable failure;
+  private boolean reading = false;
+  private boolean awaitingAck = false;
+  private boolean ended = false;
+  private boolean closed = false;
+  private Handler<Void> closeHandler;
+
+  /**
+   * @param statement Statement of the result set, closed with it
+   */
+  public RowStreamSender(Vertx vertx, Message<JsonObject> request, SQLConnection connection, Statement statement,
+                         ResultSet resultSet, int chunkSize) {
+    this.vertx = vertx;
+    this.current = request;
+    this.connection = connection;
+    this.statement = statement;
+    this.resultSet = resultSet;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Set a handler called once the connection is returned to the pool.
+   */
+  public RowStreamSender closeHandler(Handler<Void> closeHandler) {
+    this.closeHandler = closeHandler;
+    return this;
+  }
+
+  public void start() {
+    readChunk();
+  }
+
+  private void readChunk() {
+    reading = true;
+
+    vertx.<JsonArray>executeBlocking(future -> {
+      try {
+        future.complete(readRows());
+      } catch (SQLException e) {
+        future.fail(e);
+      }
+    }, false, this::onChunk);
+  }
+
+  private JsonArray readRows() throws SQLException {
+    if (columns == null) {
+      ResultSetMetaData metaData = resultSet.getMetaData();
+      columns = new String[metaData.getColumnCount()];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = metaData.getColumnLabel(i + 1);
+      }
+    }
+
+    JsonArray rows = new JsonArray();
+    while (rows.size() < chunkSize && resultSet.next()) {
+      JsonObject row = new JsonObject();
+      for (int i = 0; i < columns.length; i++) {
+        row.put(columns[i], JDBCStatementHelper.convertSqlValue(resultSet.getObject(i + 1)));
+      }
+      rows.add(row);
+    }
+
+    return rows;
+  }
+
+  private void onChunk(AsyncResult<JsonArray> result) {
+    reading = false;
+
+    if (closed) {
+      release();
+      return;
+    }
+
+    if (result.failed()) {
+      failure = result.cause();
+    } else {
+      chunk = result.result();
+      ended = chunk.size() < chunkSize;
+    }
+
+    if (!awaitingAck) {
+      send();
+    }
+  }
+
+  private void onAck(AsyncResult<Message<JsonObject>> ack) {
+    awaitingAck = false;
+
+    if (ack.failed() || ack.result().body() != null && ack.result().body().getBoolean("cancel", false)) {
+      close();
+      return;
+    }
+
+    current = ack.result();
+
+    if (!reading) {
+      send();
+    }
+  }
+
+  private void send() {
+    if (failure != null) {
+      current.fail(ApiStatus.STATUS_DB_QUERY_FAILURE.statusCode(), failure.getMessage());
+      close();
+      return;
+    }
+
+    JsonArray rows = chunk;
+    chunk = null;
+
+    if (ended) {
+      current.reply(new JsonObject().put("rows", rows).put("last", true));
+      close();
+      return;
+    }
+
+    awaitingAck = true;
+    current.<JsonObject>reply(new JsonObject().put("rows", rows).put("last", false), this::onAck);
+    readChunk();
+  }
+
+  private void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    // A chunk being read still uses the result set, it is released once the read is done
+    if (!reading) {
+      release();
+    }
+  }
+
+  private void release() {
+    vertx.<Void>executeBlocking(future -> {
+      try {
+        statement.close();
+      } catch (SQLException ignored) {
+        // The connection is returned to the pool regardless
+      }
+      future.complete();
+    }, false, res -> {
+      connection.close();
+
+      if (closeHandler != null) {
+        closeHandler.handle(null);
+      }
+    });
+  }
+}
@@ -0,0 +1,108 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collapses identical lookups that are in flight at the same time into one database round trip.
+ *
+ * The first request for a key becomes the leader and runs the query, requests for the same key arriving before the
+ * leader finished wait for its result. A write to a table detaches the flights on that table, so requests arriving
+ * after the write run their own query instead of receiving a result read before the write.
+ * Join, complete and detach flights from the context of the verticle that replies to the requests.
+ */
+public class SingleFlight {
+  private final boolean enabled;
+  private final Map<String, Flight> flights = new HashMap<>();
+  private long queries = 0;
+  private long collapsed = 0;
+
+  /**
+   * @param enabled When false every request gets its own flight, only the counters are kept
+   */
+  public SingleFlight(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Join the flight for a key.
+   *
+   * @param key       Unique key of the lookup, like address, table and primary key
+   * @param tableName Table the lookup reads from, or null when unknown
+   * @param msg       Message to reply when the lookup finished
+   * @return The new flight when the caller has to run the query, or null when the message joined a running flight
+   */
+  public Flight join(String key, String tableName, Message<?> msg) {
+    Flight flight = flights.get(key);
+    if (flight != null) {
+      flight.messages.add(msg);
+      collapsed++;
+      return null;
+    }
+
+    flight = new Flight(key, tableName);
+    flight.messages.add(msg);
+    if (enabled) {
+      flights.put(key, flight);
+    }
+    queries++;
+
+    return flight;
+  }
+
+  /**
+   * Stop new requests from joining the flights reading from the given table. Flights with an unknown table are
+   * detached on every write, a null table name detaches all flights.
+   */
+  public void detach(String tableName) {
+    Iterator<Flight> iterator = flights.values().iterator();
+    while (iterator.hasNext()) {
+      Flight flight = iterator.next();
+      if (tableName == null || flight.tableName == null || Objects.equals(flight.tableName, tableName)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Counters of queries executed and requests that were served by another request's query.
+   */
+  public JsonObject stats() {
+    return new JsonObject()
+      .put("queries", queries)
+      .put("collapsed", collapsed)
+      .put("in_flight", flights.size());
+  }
+
+  public class Flight {
+    private final String key;
+    private final String tableName;
+    private final List<Message<?>> messages = new ArrayList<>();
+
+    private Flight(String key, String tableName) {
+      this.key = key;
+      this.tableName = tableName;
+    }
+
+    public void reply(Object body) {
+      finish();
+      messages.forEach(msg -> msg.reply(body));
+    }
+
+    public void fail(int failureCode, String message) {
+      finish();
+      messages.forEach(msg -> msg.fail(failureCode, message));
+    }
+
+    private void finish() {
+      flights.remove(key, this);
+    }
+  }
+}
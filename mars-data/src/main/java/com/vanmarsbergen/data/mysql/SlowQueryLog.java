@@ -0,0 +1,208 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Records the execution time of statements per fingerprint, the statement with its literals replaced by "?", and
+ * logs the statements slower than the "threshold".
+ *
+ * A sampled part ("explain_sample_rate") of the slow SELECT statements is marked to be explained, at most once per
+ * "explain_interval" milliseconds per fingerprint, so full table scans show up in the stats without enabling the slow
+ * log of the database.
+ *
+ * Configured with "slow_query_log": {"threshold": 500, "top": 20, "max_fingerprints": 1000, "explain_sample_rate":
+ * 0.1, "explain_interval": 60000}. The digests aren't synchronized: statements timed on a worker thread, like those of
+ * a {@link TransactionalUpdate}, are recorded once the result is back on the context of the verticle.
+ */
+public class SlowQueryLog {
+  private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+
+  private static final Pattern COMMENTS = Pattern.compile("/\\*.*?\\*/|--[^\\n]*", Pattern.DOTALL);
+  private static final Pattern STRINGS = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'|\"(?:[^\"\\\\]|\\\\.|\"\")*\"");
+  private static final Pattern NUMBERS = Pattern.compile(
+    "\\b0x[0-9a-fA-F]+\\b|(?<![\\w$])-?\\d+(?:\\.\\d+)?(?:[eE][+-]?\\d+)?\\b"
+  );
+  private static final Pattern IN_LISTS = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+  private static final Pattern ROW_LISTS = Pattern.compile(
+    "(\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\))(?:\\s*,\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\))+"
+  );
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+  private static final int FINGERPRINT_CACHE_SIZE = 1024;
+
+  private final long threshold;
+  private final int top;
+  private final int maxFingerprints;
+  private final double explainSampleRate;
+  private final long explainInterval;
+  private final Map<String, Digest> digests = new HashMap<>();
+  private final Map<String, String> fingerprints = new LinkedHashMap<String, String>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > FINGERPRINT_CACHE_SIZE;
+    }
+  };
+
+  public SlowQueryLog(JsonObject config) {
+    this.threshold = config.getLong("threshold", 500L);
+    this.top = config.getInteger("top", 20);
+    this.maxFingerprints = config.getInteger("max_fingerprints", 1000);
+    this.explainSampleRate = config.getDouble("explain_sample_rate", 0d);
+    this.explainInterval = config.getLong("explain_interval", 60000L);
+  }
+
+  /**
+   * Record the execution of a statement.
+   *
+   * @param query SQL statement, requests without one aren't recorded
+   * @param nanos Execution time measured with {@link System#nanoTime()}
+   * @return true when the statement was slow and should be explained, pass the plan to {@link #explained}
+   */
+  public boolean record(String query, long nanos) {
+    if (query == null) {
+      return false;
+    }
+
+    String fingerprint = fingerprints.computeIfAbsent(query, SlowQueryLog::fingerprint);
+    Digest digest = digests.get(fingerprint);
+    if (digest == null) {
+      evictIfFull();
+      digest = new Digest(fingerprint);
+      digests.put(fingerprint, digest);
+    }
+
+    long micros = nanos / 1000;
+    digest.count++;
+    digest.totalTime += micros;
+    digest.maxTime = Math.max(digest.maxTime, micros);
+
+    if (micros < threshold * 1000) {
+      return false;
+    }
+
+    digest.slowCount++;
+    digest.example = query;
+    logger.warn(String.format("Slow query (%d ms): %s", micros / 1000, query));
+
+    long now = System.currentTimeMillis();
+    if (explainSampleRate <= 0 || digest.explaining || now - digest.explainedAt < explainInterval ||
+      !fingerprint.startsWith("select") || ThreadLocalRandom.current().nextDouble() >= explainSampleRate) {
+      return false;
+    }
+
+    digest.explaining = true;
+    digest.explainedAt = now;
+    return true;
+  }
+
+  /**
+   * Store the EXPLAIN output of a statement marked by {@link #record}, or null when explaining it failed.
+   */
+  public void explained(String query, List<JsonObject> plan) {
+    if (query == null) {
+      return;
+    }
+
+    Digest digest = digests.get(fingerprints.computeIfAbsent(query, SlowQueryLog::fingerprint));
+    if (digest == null) {
+      return;
+    }
+
+    digest.explaining = false;
+    if (plan == null) {
+      return;
+    }
+
+    digest.plan = new JsonArray(plan);
+    for (JsonObject row : plan) {
+      if ("ALL".equalsIgnoreCase(row.getString("type"))) {
+        logger.warn(String.format("Slow query does a full scan of %s: %s", row.getString("table"), query));
+      }
+    }
+  }
+
+  /**
+   * Returns the "top" fingerprints by total execution time, times are in microseconds.
+   */
+  public JsonObject stats() {
+    List<Digest> sorted = new ArrayList<>(digests.values());
+    sorted.sort((a, b) -> Long.compare(b.totalTime, a.totalTime));
+
+    JsonArray queries = new JsonArray();
+    sorted.stream().limit(top).forEach(digest -> queries.add(digest.toJson()));
+
+    return new JsonObject()
+      .put("threshold", threshold)
+      .put("fingerprints", digests.size())
+      .put("queries", queries);
+  }
+
+  /**
+   * Normalize a statement so executions that only differ in literals or the length of IN and VALUES lists share the
+   * same fingerprint, e.g. "SELECT * FROM a WHERE id IN (1, 2) AND name = 'b'" becomes
+   * "select * from a where id in (?+) and name = ?".
+   */
+  public static String fingerprint(String query) {
+    String fingerprint = COMMENTS.matcher(query).replaceAll(" ");
+    fingerprint = STRINGS.matcher(fingerprint).replaceAll("?");
+    fingerprint = NUMBERS.matcher(fingerprint).replaceAll("?");
+    fingerprint = IN_LISTS.matcher(fingerprint).replaceAll("in (?+)");
+    fingerprint = ROW_LISTS.matcher(fingerprint).replaceAll("$1");
+    fingerprint = WHITESPACE.matcher(fingerprint).replaceAll(" ");
+
+    return fingerprint.trim().toLowerCase(Locale.ROOT);
+  }
+
+  private void evictIfFull() {
+    if (digests.size() < maxFingerprints) {
+      return;
+    }
+
+    Digest least = null;
+    for (Digest digest : digests.values()) {
+      if (least == null || digest.totalTime < least.totalTime) {
+        least = digest;
+      }
+    }
+    digests.remove(least.fingerprint);
+  }
+
+  private static class Digest {
+    private final String fingerprint;
+    private long count = 0;
+    private long slowCount = 0;
+    private long totalTime = 0;
+    private long maxTime = 0;
+    private String example;
+    private JsonArray plan;
+    private boolean explaining = false;
+    private long explainedAt = 0;
+
+    private Digest(String fingerprint) {
+      this.fingerprint = fingerprint;
+    }
+
+    private JsonObject toJson() {
+      return new JsonObject()
+        .put("fingerprint", fingerprint)
+        .put("count", count)
+        .put("slow_count", slowCount)
+        .put("total_time", totalTime)
+        .put("mean_time", totalTime / count)
+        .put("max_time", maxTime)
+        .put("example", example)
+        .put("explain", plan);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import com.vanmarsbergen.mars.core.metrics.LatencyHistogram;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency histograms per eventbus address of the storage verticle, split into the time spent waiting for a pooled
+ * connection ("acquire"), running the statements ("execute") and replying the result ("reply", which includes copying
+ * or encoding the reply body). All values are in microseconds, see {@link LatencyHistogram}.
+ *
+ * Every verticle instance records its own metrics on its context; db.mysql.metrics.report carries them per instance.
+ */
+public class StorageMetrics {
+  private final Map<String, AddressMetrics> addresses = new TreeMap<>();
+
+  public void recordAcquire(String address, long nanos) {
+    address(address).acquire.recordNanos(nanos);
+  }
+
+  public void recordExecute(String address, long nanos) {
+    address(address).execute.recordNanos(nanos);
+  }
+
+  /**
+   * Run the reply and record how long it took.
+   */
+  public void timeReply(String address, Runnable reply) {
+    long start = System.nanoTime();
+    reply.run();
+    address(address).reply.recordNanos(System.nanoTime() - start);
+  }
+
+  /**
+   * Returns an object with the "acquire", "execute" and "reply" histograms of every address.
+   */
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    addresses.forEach((address, metrics) -> json.put(address, new JsonObject()
+      .put("acquire", metrics.acquire.toJson())
+      .put("execute", metrics.execute.toJson())
+      .put("reply", metrics.reply.toJson())
+    ));
+
+    return json;
+  }
+
+  private AddressMetrics address(String address) {
+    return addresses.computeIfAbsent(address, name -> new AddressMetrics());
+  }
+
+  private static class AddressMetrics {
+    private final LatencyHistogram acquire = new LatencyHistogram();
+    private final LatencyHistogram execute = new LatencyHistogram();
+    private final LatencyHistogram reply = new LatencyHistogram();
+  }
+}
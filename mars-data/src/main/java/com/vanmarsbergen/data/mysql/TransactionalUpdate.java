@@ -0,0 +1,164 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import com.vanmarsbergen.mars.core.api.Deadline;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.jdbc.impl.actions.JDBCStatementHelper;
+import io.vertx.ext.sql.UpdateResult;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a list of update statements in one transaction on a plain JDBC connection.
+ *
+ * All statements run in order within a single blocking call, so a transaction costs one worker hop instead of one
+ * per statement. The first failing statement rolls the whole transaction back. With a deadline, every statement
+ * gets the time left as query timeout. Parameters are bound like the JDBC client binds them, so ISO date strings
+ * become timestamps.
+ */
+public class TransactionalUpdate {
+  private final List<String> queries;
+  private final List<JsonArray> queryParams;
+  private final long[] durations;
+  private long deadline = 0;
+  private boolean rejected = false;
+
+  public TransactionalUpdate(JsonArray queries, JsonArray queryParams) {
+    this.queries = new ArrayList<>(queries.size());
+    this.queryParams = new ArrayList<>(queries.size());
+    this.durations = new long[queries.size()];
+
+    for (int i = 0; i < queries.size(); i++) {
+      this.queries.add(queries.getString(i));
+      this.queryParams.add(queryParams != null && i < queryParams.size() ? queryParams.getJsonArray(i) : null);
+    }
+  }
+
+  public List<String> getQueries() {
+    return queries;
+  }
+
+  /**
+   * Set the deadline of the transaction in epoch milliseconds, see {@link Deadline}. 0 means no deadline.
+   */
+  public TransactionalUpdate deadline(long deadline) {
+    this.deadline = deadline;
+    return this;
+  }
+
+  public long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Execution time in nanoseconds of every statement after {@link #execute(Connection)}, 0 for statements that didn't
+   * run.
+   */
+  public long[] getDurations() {
+    return durations;
+  }
+
+  /**
+   * Whether the last {@link #execute(Connection)} failed because the database rejected a statement with a constraint
+   * or data error. The transaction wasn't committed then, so its rows can be retried without storing them twice.
+   * Failures like timeouts or a failed commit leave the outcome unknown and don't count as rejected.
+   */
+  public boolean isRejected() {
+    return rejected;
+  }
+
+  /**
+   * Execute all statements and commit with the default parameter conversion, see
+   * {@link #execute(Connection, JDBCStatementHelper)}.
+   */
+  public List<UpdateResult> execute(Connection connection) throws SQLException {
+    return execute(connection, new JDBCStatementHelper());
+  }
+
+  /**
+   * Execute all statements and commit. Must be called from a worker thread.
+   *
+   * @param connection JDBC connection, its auto commit setting is restored afterwards
+   * @param helper     Binds the parameters, created with the config of the JDBC client
+   * @return The {@link UpdateResult} of every statement, in the order of the statements
+   * @throws SQLException When a statement or the commit failed, the transaction is rolled back by then
+   */
+  public List<UpdateResult> execute(Connection connection, JDBCStatementHelper helper) throws SQLException {
+    List<UpdateResult> results = new ArrayList<>(queries.size());
+    rejected = false;
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+
+    try {
+      for (int i = 0; i < queries.size(); i++) {
+        long start = System.nanoTime();
+        try {
+          results.add(executeUpdate(connection, helper, queries.get(i), params(i, results)));
+        } catch (SQLException e) {
+          rejected = isRejection(e);
+          throw e;
+        }
+        durations[i] = System.nanoTime() - start;
+      }
+      connection.commit();
+    } catch (SQLException | RuntimeException e) {
+      try {
+        connection.rollback();
+      } catch (SQLException rollbackException) {
+        e.addSuppressed(rollbackException);
+      }
+      throw e;
+    } finally {
+      connection.setAutoCommit(autoCommit);
+    }
+
+    return results;
+  }
+
+  /**
+   * The parameters of the statement at the index, given the results of the statements before it.
+   */
+  protected JsonArray params(int index, List<UpdateResult> results) throws SQLException {
+    return queryParams.get(index);
+  }
+
+  /**
+   * SQL states of class 22 are data exceptions, class 23 integrity constraint violations.
+   */
+  private static boolean isRejection(SQLException e) {
+    String sqlState = e.getSQLState();
+    return !(e instanceof SQLTimeoutException) && sqlState != null &&
+      (sqlState.startsWith("22") || sqlState.startsWith("23"));
+  }
+
+  private UpdateResult executeUpdate(Connection connection, JDBCStatementHelper helper, String query, JsonArray params)
+    throws SQLException {
+    if (Deadline.isExpired(deadline)) {
+      throw new SQLTimeoutException("Deadline exceeded before executing: " + query);
+    }
+
+    try (PreparedStatement statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+      statement.setQueryTimeout(Deadline.queryTimeout(deadline));
+      if (params != null) {
+        helper.fillStatement(statement, params);
+      }
+      int updated = statement.executeUpdate();
+
+      JsonArray keys = new JsonArray();
+      // The driver returns no result set when nothing was updated, also when it has an insert id
+      try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+        while (generatedKeys != null && generatedKeys.next()) {
+          keys.add(generatedKeys.getLong(1));
+        }
+      }
+
+      return new UpdateResult(updated, keys);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import com.vanmarsbergen.mars.data.redis.impl.LocalCacheStore;
+import com.vanmarsbergen.mars.data.redis.impl.RedisCacheStore;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+
+/**
+ * The part of Redis used by the {@link ModelCache}: binary values with a time to live, counters and pub/sub.
+ *
+ * Backed by Redis, or by a local stand-in shared by the verticles of one Vert.x instance for tests and single node
+ * setups, configured with "store": "redis" (default) or "local".
+ */
+public interface CacheStore {
+
+  static CacheStore create(Vertx vertx, JsonObject config) {
+    if ("local".equals(config.getString("store", "redis"))) {
+      return local(vertx);
+    }
+
+    return redis(vertx, config.getJsonObject("redis", new JsonObject()));
+  }
+
+  static CacheStore redis(Vertx vertx, JsonObject config) {
+    return new RedisCacheStore(vertx, config);
+  }
+
+  static CacheStore local(Vertx vertx) {
+    return new LocalCacheStore(vertx);
+  }
+
+  /**
+   * Get a value, null when it doesn't exist or expired.
+   */
+  void get(String key, Handler<AsyncResult<Buffer>> handler);
+
+  /**
+   * Get the string values of the keys, in the same order with null for keys that don't exist.
+   */
+  void getMany(List<String> keys, Handler<AsyncResult<JsonArray>> handler);
+
+  /**
+   * Set a value that expires after the ttl in seconds.
+   */
+  void set(String key, Buffer value, long ttl, Handler<AsyncResult<Void>> handler);
+
+  /**
+   * Increment the counter stored at the key, starting at 0 when it doesn't exist.
+   */
+  void increment(String key, Handler<AsyncResult<Long>> handler);
+
+  void publish(String channel, String message, Handler<AsyncResult<Void>> handler);
+
+  /**
+   * Call the message handler with every message published to the channel, from any node.
+   */
+  void subscribe(String channel, Handler<String> messageHandler, Handler<AsyncResult<Void>> handler);
+
+  void close(Handler<AsyncResult<Void>> handler);
+}
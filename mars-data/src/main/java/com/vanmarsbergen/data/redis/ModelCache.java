@@ -0,0 +1,263 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import com.vanmarsbergen.mars.core.eventbus.RowSet;
+import com.vanmarsbergen.mars.core.eventbus.RowSetCodec;
+import com.vanmarsbergen.mars.data.mysql.EntityCache;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Two tier cache for single rows fetched by primary key or UUID: a small {@link EntityCache} per node in front of a
+ * {@link CacheStore} shared by all nodes.
+ *
+ * Shared entries are single row {@link RowSet}s in the wire format of the {@link RowSetCodec}, stored under a key that
+ * contains the version of their table, e.g. "mars:model:users:3.12:pk:42". A write increments the version of the
+ * table in the store, which makes all its entries unreachable at once (they expire after "ttl" seconds), and
+ * publishes the table name on the "channel" so every node drops its own rows and remembered version of the table.
+ *
+ * Configured with "model_cache": {"store": "redis", "redis": {...}, "prefix": "mars:model:", "ttl": 300,
+ * "channel": "mars.model.invalidate", "tables": ["users"], "near_cache": {...}}, see {@link CacheStore} and
+ * {@link EntityCache}. Only the "tables" are cached, or every table when the list is missing. Rows must be read from
+ * the primary before they are put: a replica lagging behind a write would store its old row under the new version.
+ * Invalidations of other nodes are handled on the context the cache was created on, use it from that context.
+ */
+public class ModelCache {
+  private static final Logger logger = LoggerFactory.getLogger(ModelCache.class);
+  private static final RowSetCodec CODEC = new RowSetCodec();
+  private static final String ALL_TABLES = "*";
+
+  private final CacheStore store;
+  private final EntityCache nearCache;
+  private final String prefix;
+  private final long ttl;
+  private final String channel;
+  private final Set<String> tables;
+  private final Map<String, Version> versions = new HashMap<>();
+  private long epoch = 0;
+  private long nearHits = 0;
+  private long remoteHits = 0;
+  private long misses = 0;
+  private long invalidations = 0;
+  private long received = 0;
+
+  public ModelCache(Vertx vertx, JsonObject config) {
+    this(CacheStore.create(vertx, config), config);
+  }
+
+  public ModelCache(CacheStore store, JsonObject config) {
+    this.store = store;
+    this.nearCache = new EntityCache(config.getJsonObject("near_cache", new JsonObject()));
+    this.prefix = config.getString("prefix", "mars:model:");
+    this.ttl = config.getLong("ttl", 300L);
+    this.channel = config.getString("channel", "mars.model.invalidate");
+    this.tables = config.containsKey("tables") ? toSet(config.getJsonArray("tables")) : null;
+
+    store.subscribe(channel, this::invalidated, res -> {
+      if (res.failed()) {
+        logger.error("Could not subscribe to model cache invalidations on " + channel, res.cause());
+      }
+    });
+  }
+
+  /**
+   * Whether rows of the table are cached. A null table name, an unknown table, counts as cached so writes to it
+   * invalidate every table.
+   */
+  public boolean isCached(String tableName) {
+    return tables == null || tableName == null || tables.contains(tableName);
+  }
+
+  /**
+   * Get a cached row from the near cache, or else from the store. Succeeds with null when the row isn't cached.
+   */
+  public void get(String tableName, String key, Handler<AsyncResult<JsonObject>> handler) {
+    JsonObject row = nearCache.get(tableName, key);
+    if (row != null) {
+      nearHits++;
+      handler.handle(Future.succeededFuture(row));
+      return;
+    }
+
+    fetchVersion(tableName, versionResult -> {
+      if (versionResult.failed()) {
+        handler.handle(Future.failedFuture(versionResult.cause()));
+        return;
+      }
+
+      Version version = versionResult.result();
+      store.get(entryKey(tableName, version, key), res -> {
+        if (res.failed()) {
+          handler.handle(Future.failedFuture(res.cause()));
+          return;
+        }
+
+        if (res.result() == null || res.result().length() == 0) {
+          misses++;
+          handler.handle(Future.succeededFuture());
+          return;
+        }
+
+        remoteHits++;
+        JsonObject cached = CODEC.decodeFromWire(0, res.result()).getRow(0);
+        if (versions.get(tableName) == version) {
+          nearCache.put(tableName, key, cached, version.generation);
+        }
+        handler.handle(Future.succeededFuture(cached));
+      });
+    });
+  }
+
+  /**
+   * Returns the version of the table to pass to {@link #put}, capture it before querying so rows read before a write
+   * finished are never stored. Null when the version isn't known, e.g. after an invalidation.
+   */
+  public Version version(String tableName) {
+    return versions.get(tableName);
+  }
+
+  /**
+   * Store a row in both tiers, unless the table was invalidated after the version was captured.
+   */
+  public void put(String tableName, String key, JsonObject row, Version version) {
+    if (row == null || version == null || versions.get(tableName) != version) {
+      return;
+    }
+
+    nearCache.put(tableName, key, row, version.generation);
+
+    Buffer buffer = Buffer.buffer();
+    CODEC.encodeToWire(buffer, new RowSet(
+      new ArrayList<>(row.fieldNames()),
+      Collections.singletonList(new JsonArray(new ArrayList<>(row.getMap().values())))
+    ));
+    store.set(entryKey(tableName, version, key), buffer, ttl, res -> {
+      if (res.failed()) {
+        logger.warn("Could not store row of " + tableName + " in the model cache", res.cause());
+      }
+    });
+  }
+
+  /**
+   * Invalidate the rows of a table, or of all tables when the table name is null, on every node.
+   */
+  public void invalidate(String tableName) {
+    invalidations++;
+    drop(tableName);
+
+    String versionKey = tableName == null ? prefix + "version" : prefix + "version:" + tableName;
+    store.increment(versionKey, res -> {
+      if (res.failed()) {
+        logger.error("Could not increment the model cache version of " + versionKey, res.cause());
+      }
+
+      store.publish(channel, tableName == null ? ALL_TABLES : tableName, published -> {
+        if (published.failed()) {
+          logger.error("Could not publish the model cache invalidation of " + versionKey, published.cause());
+        }
+      });
+    });
+  }
+
+  /**
+   * Hits of both tiers, misses and invalidations sent and received, with the stats of the near cache.
+   */
+  public JsonObject stats() {
+    return new JsonObject()
+      .put("near_hits", nearHits)
+      .put("remote_hits", remoteHits)
+      .put("misses", misses)
+      .put("invalidations", invalidations)
+      .put("received", received)
+      .put("near", nearCache.stats());
+  }
+
+  public void close(Handler<AsyncResult<Void>> handler) {
+    store.close(handler);
+  }
+
+  private void invalidated(String message) {
+    received++;
+    drop(ALL_TABLES.equals(message) ? null : message);
+  }
+
+  private void drop(String tableName) {
+    epoch++;
+    nearCache.invalidate(tableName);
+    if (tableName == null) {
+      versions.clear();
+    } else {
+      versions.remove(tableName);
+    }
+  }
+
+  /**
+   * The remembered version of the table, or else the version in the store. A version fetched while an invalidation
+   * came in may already be outdated, it is used for this lookup but not remembered.
+   */
+  private void fetchVersion(String tableName, Handler<AsyncResult<Version>> handler) {
+    Version known = versions.get(tableName);
+    if (known != null) {
+      handler.handle(Future.succeededFuture(known));
+      return;
+    }
+
+    long fetchEpoch = epoch;
+    long generation = nearCache.generation(tableName);
+    store.getMany(Arrays.asList(prefix + "version", prefix + "version:" + tableName), res -> {
+      if (res.failed()) {
+        handler.handle(Future.failedFuture(res.cause()));
+        return;
+      }
+
+      String global = res.result().getString(0);
+      String table = res.result().getString(1);
+      Version version = new Version((global == null ? "0" : global) + "." + (table == null ? "0" : table), generation);
+      if (fetchEpoch == epoch) {
+        versions.put(tableName, version);
+      }
+      handler.handle(Future.succeededFuture(version));
+    });
+  }
+
+  private static Set<String> toSet(JsonArray tables) {
+    Set<String> set = new HashSet<>();
+    for (int i = 0; i < tables.size(); i++) {
+      set.add(tables.getString(i));
+    }
+
+    return set;
+  }
+
+  private String entryKey(String tableName, Version version, String key) {
+    return prefix + tableName + ":" + version.value + ":" + key;
+  }
+
+  /**
+   * Version of a table in the store together with the generation of the table in the near cache.
+   */
+  public static final class Version {
+    private final String value;
+    private final long generation;
+
+    private Version(String value, long generation) {
+      this.value = value;
+      this.generation = generation;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import com.vanmarsbergen.mars.core.api.ApiStatus;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Token buckets in Redis, leased out in batches so web nodes only reach Redis once per batch of requests.
+ *
+ * "redis.ratelimit.lease" {"key", "tokens", "rate", "burst", "returned"} takes up to "tokens" tokens from the bucket
+ * of the key, which holds at most "burst" tokens and is refilled with "rate" tokens per second. The "returned" tokens
+ * of an earlier lease that weren't used are put back first, so a node doesn't keep tokens other nodes could use. It
+ * replies {"granted", "retryAfter"} with the amount of tokens taken and, when none were left, the milliseconds until
+ * the next token is available.
+ *
+ * The bucket is updated by a Lua script so concurrent leases of different nodes can't take the same tokens. Configured
+ * with "rate_limit": {"prefix": "mars:ratelimit:", "redis": {...}}, see {@link RedisManager}.
+ */
+public class RateLimitVerticle extends AbstractVerticle {
+  private static final String SCRIPT = "" +
+    "local rate = tonumber(ARGV[1])\n" +
+    "local burst = tonumber(ARGV[2])\n" +
+    "local requested = tonumber(ARGV[3])\n" +
+    "local now = tonumber(ARGV[4])\n" +
+    "local returned = tonumber(ARGV[5])\n" +
+    "local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'updated')\n" +
+    "local tokens = tonumber(bucket[1]) or burst\n" +
+    "local updated = tonumber(bucket[2]) or now\n" +
+    "tokens = math.min(burst, tokens + returned + math.max(0, now - updated) * rate / 1000)\n" +
+    "local granted = math.min(requested, math.floor(tokens))\n" +
+    "tokens = tokens - granted\n" +
+    "redis.call('HMSET', KEYS[1], 'tokens', tokens, 'updated', now)\n" +
+    "redis.call('PEXPIRE', KEYS[1], math.ceil(burst * 1000 / rate) + 1000)\n" +
+    "local retry = 0\n" +
+    "if granted == 0 and requested > 0 then retry = math.ceil((1 - tokens) * 1000 / rate) end\n" +
+    "return {granted, retry}\n";
+  private static final String SCRIPT_SHA = sha1(SCRIPT);
+
+  private RedisManager redis;
+  private String prefix;
+
+  @Override
+  public void start() throws Exception {
+    JsonObject config = config().getJsonObject("rate_limit", new JsonObject());
+    this.redis = RedisManager.create(vertx, config.getJsonObject("redis", new JsonObject()));
+    this.prefix = config.getString("prefix", "mars:ratelimit:");
+
+    vertx.eventBus().consumer("redis.ratelimit.lease", this::lease);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    redis.close(res -> {});
+  }
+
+  private void lease(Message<JsonObject> msg) {
+    String key = prefix + msg.body().getString("key");
+    List<String> args = Arrays.asList(
+      String.valueOf(msg.body().getDouble("rate")),
+      String.valueOf(msg.body().getInteger("burst")),
+      String.valueOf(msg.body().getInteger("tokens", 1)),
+      String.valueOf(System.currentTimeMillis()),
+      String.valueOf(Math.max(0, msg.body().getInteger("returned", 0)))
+    );
+
+    evaluate(redis.forKey(key), key, args, res -> {
+      if (res.failed()) {
+        msg.fail(ApiStatus.FAILED_HANDLER.statusCode(), res.cause().getMessage());
+        return;
+      }
+
+      JsonArray reply = res.result();
+      msg.reply(new JsonObject().put("granted", reply.getLong(0)).put("retryAfter", reply.getLong(1)));
+    });
+  }
+
+  /**
+   * Run the script by its SHA1, Redis only needs the script itself the first time.
+   */
+  private void evaluate(RedisCommands commands, String key, List<String> args,
+                        Handler<AsyncResult<JsonArray>> handler) {
+    List<String> keys = Collections.singletonList(key);
+    commands.evalsha(SCRIPT_SHA, keys, args, res -> {
+      if (res.failed() && String.valueOf(res.cause().getMessage()).startsWith("NOSCRIPT")) {
+        commands.eval(SCRIPT, keys, args, handler);
+        return;
+      }
+
+      handler.handle(res);
+    });
+  }
+
+  private static String sha1(String script) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8));
+      return String.format("%040x", new BigInteger(1, digest));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
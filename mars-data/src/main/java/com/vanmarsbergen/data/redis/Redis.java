@@ -6,7 +6,17 @@ import io.vertx.redis.RedisClient;
 import io.vertx.redis.RedisOptions;
 
 public interface Redis {
+
+  /**
+   * Create a client for a single Redis server, configured with "host", "port", "auth" and "select" (the database).
+   * Use {@link RedisManager} for several connections or servers.
+   */
   public static RedisClient createClient(Vertx vertx, JsonObject config) {
-    return RedisClient.create(vertx, new RedisOptions().setHost(config.getString("host")));
+    return RedisClient.create(vertx, new RedisOptions()
+      .setHost(config.getString("host", "localhost"))
+      .setPort(config.getInteger("port", 6379))
+      .setAuth(config.getString("auth"))
+      .setSelect(config.getInteger("select", 0))
+    );
   }
 }
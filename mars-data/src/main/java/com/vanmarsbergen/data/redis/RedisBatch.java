@@ -0,0 +1,39 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+
+/**
+ * Commands collected to be sent to Redis together, created with {@link RedisCommands#pipeline()} or
+ * {@link RedisCommands#multi()}:
+ * <pre>
+ * redis.multi().setex("jwt:" + id, 3600, token).expire("user:" + userId, 3600).exec(res -&gt; ...);
+ * </pre>
+ */
+public interface RedisBatch {
+
+  RedisBatch get(String key);
+
+  RedisBatch set(String key, String value);
+
+  RedisBatch setex(String key, long seconds, String value);
+
+  RedisBatch expire(String key, long seconds);
+
+  RedisBatch del(String key);
+
+  RedisBatch incr(String key);
+
+  RedisBatch zadd(String key, double score, String member);
+
+  RedisBatch zrangebyscore(String key, String min, String max);
+
+  RedisBatch zremrangebyscore(String key, String min, String max);
+
+  /**
+   * Send the commands. Succeeds with the reply of every command in order, or fails with the first error; the other
+   * commands of a pipeline are still executed, a transaction that failed to queue a command is not.
+   */
+  void exec(Handler<AsyncResult<JsonArray>> handler);
+}
@@ -0,0 +1,98 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import com.vanmarsbergen.mars.data.redis.impl.RedisCommandsImpl;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+
+/**
+ * Redis commands over a connection of its own, using the Vert.x {@link io.vertx.redis.RedisClient}: commands are
+ * pipelined, written without waiting for the replies of earlier commands. Use {@link #pipeline()} or
+ * {@link #multi()} to send related commands together explicitly, e.g. SET and EXPIRE of a token.
+ *
+ * Configured with {"host": "localhost", "port": 6379, "auth": "secret", "select": 0, "max_waiting": 1000}. Once
+ * "max_waiting" commands are waiting for a reply, further commands fail right away instead of piling up in memory.
+ * The latency of every command is recorded per command name, see {@link #stats()}. Use the commands from the context
+ * they were created on.
+ */
+public interface RedisCommands {
+
+  static RedisCommands create(Vertx vertx, JsonObject config) {
+    return new RedisCommandsImpl(vertx, config);
+  }
+
+  void get(String key, Handler<AsyncResult<String>> handler);
+
+  void getBinary(String key, Handler<AsyncResult<Buffer>> handler);
+
+  void set(String key, String value, Handler<AsyncResult<Void>> handler);
+
+  void setBinary(String key, Buffer value, Handler<AsyncResult<Void>> handler);
+
+  /**
+   * Set the value with a time to live in seconds.
+   */
+  void setex(String key, long seconds, String value, Handler<AsyncResult<Void>> handler);
+
+  /**
+   * Set the time to live of the key in seconds, succeeds with false when the key doesn't exist.
+   */
+  void expire(String key, long seconds, Handler<AsyncResult<Boolean>> handler);
+
+  void ttl(String key, Handler<AsyncResult<Long>> handler);
+
+  void del(String key, Handler<AsyncResult<Long>> handler);
+
+  void incr(String key, Handler<AsyncResult<Long>> handler);
+
+  /**
+   * Add a member to a sorted set, succeeds with the amount of members added.
+   */
+  void zadd(String key, double score, String member, Handler<AsyncResult<Long>> handler);
+
+  /**
+   * The score of a member of a sorted set, null when it isn't a member.
+   */
+  void zscore(String key, String member, Handler<AsyncResult<String>> handler);
+
+  /**
+   * The members of a sorted set with a score between min and max, e.g. "-inf" and "(100" for less than 100.
+   */
+  void zrangebyscore(String key, String min, String max, Handler<AsyncResult<JsonArray>> handler);
+
+  void zremrangebyscore(String key, String min, String max, Handler<AsyncResult<Long>> handler);
+
+  /**
+   * Run a Lua script, succeeds with the array the script returns.
+   */
+  void eval(String script, List<String> keys, List<String> args, Handler<AsyncResult<JsonArray>> handler);
+
+  /**
+   * Run a Lua script loaded before by its SHA1, fails with a message starting with "NOSCRIPT" when Redis doesn't
+   * know the script.
+   */
+  void evalsha(String sha1, List<String> keys, List<String> args, Handler<AsyncResult<JsonArray>> handler);
+
+  /**
+   * Start a batch of commands that are sent together, without a transaction.
+   */
+  RedisBatch pipeline();
+
+  /**
+   * Start a batch of commands that are sent together and executed as a MULTI/EXEC transaction.
+   */
+  RedisBatch multi();
+
+  /**
+   * Latency histograms per command name in microseconds, the commands waiting for a reply and the commands that
+   * were refused because too many were waiting.
+   */
+  JsonObject stats();
+
+  void close(Handler<AsyncResult<Void>> handler);
+}
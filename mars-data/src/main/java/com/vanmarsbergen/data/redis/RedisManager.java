@@ -0,0 +1,64 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import com.vanmarsbergen.mars.data.redis.impl.RedisManagerImpl;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+
+/**
+ * Pipelined {@link RedisCommands} connections to one or more Redis servers ("shards"). Keys are spread over the shards
+ * with consistent hashing, so adding a shard only moves about 1/n of the keys. Only the part of a key between "{" and
+ * "}" is hashed when it has one, so related keys like "{user:42}:tokens" and "{user:42}:profile" share a shard and
+ * can be used in one batch.
+ *
+ * Every shard has "connections" connections per node, a command goes to the one with the fewest commands waiting for a
+ * reply so a slow command doesn't hold up the others:
+ * <pre>
+ * "redis": {
+ *   "connections": 4,
+ *   "shards": [
+ *     { "name": "tokens-1", "host": "10.0.0.1", "port": 6379, "auth": "secret", "select": 0, "weight": 1 },
+ *     { "name": "tokens-2", "host": "10.0.0.2" }
+ *   ]
+ * }
+ * </pre>
+ * Without "shards" the "host", "port", "auth" and "select" of the configuration itself are used as the only shard.
+ * Use the manager from the context it was created on.
+ */
+public interface RedisManager {
+
+  /**
+   * @throws IllegalArgumentException When no shard is configured, or a shard has less than one connection or a
+   *                                  weight below 1
+   */
+  static RedisManager create(Vertx vertx, JsonObject config) {
+    return new RedisManagerImpl(vertx, config);
+  }
+
+  /**
+   * The least busy connection to the shard of the key.
+   */
+  RedisCommands forKey(String key);
+
+  /**
+   * The least busy connection to the shard with the name.
+   */
+  RedisCommands shard(String name);
+
+  /**
+   * Name of the shard a key is stored on.
+   */
+  String shardName(String key);
+
+  List<String> shardNames();
+
+  /**
+   * Per shard the keys routed to it, the commands waiting for a reply and the stats of every connection.
+   */
+  JsonObject stats();
+
+  void close(Handler<AsyncResult<Void>> handler);
+}
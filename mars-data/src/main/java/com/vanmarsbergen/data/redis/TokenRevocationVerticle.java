@@ -0,0 +1,92 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import com.vanmarsbergen.mars.core.api.ApiStatus;
+import com.vanmarsbergen.mars.core.eventbus.RevocationAddresses;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Stores revoked JWT token ids in a sorted set in Redis, scored by the time the token expires, so revocations are
+ * forgotten once the token isn't valid anymore anyway.
+ *
+ * <ul>
+ * <li>"redis.jwt.revoke" {"tokenId", "expiresAt"}: revoke a token, the revocation is published to every node on
+ * "redis.jwt.revoked"</li>
+ * <li>"redis.jwt.isRevoked" {"tokenId"}: replies true when the token is revoked</li>
+ * <li>"redis.jwt.revocations": replies a JsonArray with all revoked token ids that didn't expire yet</li>
+ * </ul>
+ *
+ * Configured with "revocation": {"key": "mars:jwt:revoked", "redis": {...}}, see {@link RedisManager}.
+ */
+public class TokenRevocationVerticle extends AbstractVerticle {
+  private RedisManager redis;
+  private String key;
+
+  @Override
+  public void start() throws Exception {
+    JsonObject config = config().getJsonObject("revocation", new JsonObject());
+    this.redis = RedisManager.create(vertx, config.getJsonObject("redis", new JsonObject()));
+    this.key = config.getString("key", "mars:jwt:revoked");
+
+    vertx.eventBus().consumer(RevocationAddresses.REVOKE, this::revoke);
+    vertx.eventBus().consumer(RevocationAddresses.IS_REVOKED, this::isRevoked);
+    vertx.eventBus().consumer(RevocationAddresses.REVOCATIONS, this::revocations);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    redis.close(res -> {});
+  }
+
+  private void revoke(Message<JsonObject> msg) {
+    Object id = msg.body().getValue("tokenId");
+    Object expiry = msg.body().getValue("expiresAt");
+    if (!(id instanceof String) || ((String) id).isEmpty() || !(expiry instanceof Number)) {
+      msg.fail(ApiStatus.REDIS_JWTTOKEN_INSERT_FAILED.statusCode(), "A revocation needs a tokenId and expiresAt");
+      return;
+    }
+
+    String tokenId = (String) id;
+    long expiresAt = ((Number) expiry).longValue();
+
+    redis.forKey(key).zadd(key, expiresAt, tokenId, res -> {
+      if (res.failed()) {
+        msg.fail(ApiStatus.REDIS_JWTTOKEN_INSERT_FAILED.statusCode(), res.cause().getMessage());
+        return;
+      }
+
+      JsonObject revoked = new JsonObject().put("tokenId", tokenId).put("expiresAt", expiresAt);
+      vertx.eventBus().publish(RevocationAddresses.REVOKED, revoked);
+      msg.reply(true);
+    });
+  }
+
+  private void isRevoked(Message<JsonObject> msg) {
+    redis.forKey(key).zscore(key, msg.body().getString("tokenId"), res -> {
+      if (res.failed()) {
+        msg.fail(ApiStatus.REDIS_JWTTOKEN_GENERAL.statusCode(), res.cause().getMessage());
+        return;
+      }
+
+      msg.reply(res.result() != null && Double.parseDouble(res.result()) > System.currentTimeMillis());
+    });
+  }
+
+  private void revocations(Message<Object> msg) {
+    String now = Long.toString(System.currentTimeMillis());
+    redis.forKey(key).pipeline()
+      .zremrangebyscore(key, "-inf", now)
+      .zrangebyscore(key, now, "+inf")
+      .exec(res -> {
+        if (res.failed()) {
+          msg.fail(ApiStatus.REDIS_JWTTOKEN_GENERAL.statusCode(), res.cause().getMessage());
+          return;
+        }
+
+        JsonArray tokenIds = res.result().getJsonArray(1);
+        msg.reply(tokenIds == null ? new JsonArray() : tokenIds);
+      });
+  }
+}
@@ -0,0 +1,120 @@
+package com.vanmarsbergen.mars.data.redis.impl;
+
+import com.vanmarsbergen.mars.data.redis.CacheStore;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.shareddata.LocalMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CacheStore} in a local map shared by the verticles of the Vert.x instance, standing in for Redis in tests
+ * and single node setups. Every value is stored with the time it expires in front of it, published messages go over
+ * the eventbus.
+ */
+public class LocalCacheStore implements CacheStore {
+  private static final String MAP_NAME = "mars.cache.local";
+  private static final String CHANNEL_PREFIX = "mars.cache.local.";
+
+  private final Vertx vertx;
+  private final LocalMap<String, Buffer> map;
+  private final List<MessageConsumer<String>> consumers = new ArrayList<>();
+
+  public LocalCacheStore(Vertx vertx) {
+    this.vertx = vertx;
+    this.map = vertx.sharedData().getLocalMap(MAP_NAME);
+  }
+
+  @Override
+  public void get(String key, Handler<AsyncResult<Buffer>> handler) {
+    handler.handle(Future.succeededFuture(value(key)));
+  }
+
+  @Override
+  public void getMany(List<String> keys, Handler<AsyncResult<JsonArray>> handler) {
+    JsonArray values = new JsonArray();
+    for (String key : keys) {
+      Buffer value = value(key);
+      if (value == null) {
+        values.addNull();
+      } else {
+        values.add(value.toString());
+      }
+    }
+
+    handler.handle(Future.succeededFuture(values));
+  }
+
+  @Override
+  public void set(String key, Buffer value, long ttl, Handler<AsyncResult<Void>> handler) {
+    map.put(key, entry(System.currentTimeMillis() + ttl * 1000, value));
+    handler.handle(Future.succeededFuture());
+  }
+
+  @Override
+  public void increment(String key, Handler<AsyncResult<Long>> handler) {
+    while (true) {
+      Buffer current = map.get(key);
+      Buffer value = current == null || isExpired(current) ? null : current.getBuffer(8, current.length());
+      long next = value == null ? 1 : Long.parseLong(value.toString()) + 1;
+      Buffer updated = entry(0, Buffer.buffer(Long.toString(next)));
+
+      boolean stored = current == null ? map.putIfAbsent(key, updated) == null : map.replaceIfPresent(key, current, updated);
+      if (stored) {
+        handler.handle(Future.succeededFuture(next));
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void publish(String channel, String message, Handler<AsyncResult<Void>> handler) {
+    vertx.eventBus().publish(CHANNEL_PREFIX + channel, message);
+    handler.handle(Future.succeededFuture());
+  }
+
+  @Override
+  public void subscribe(String channel, Handler<String> messageHandler, Handler<AsyncResult<Void>> handler) {
+    MessageConsumer<String> consumer = vertx.eventBus().consumer(CHANNEL_PREFIX + channel, msg -> {
+      messageHandler.handle(msg.body());
+    });
+    consumers.add(consumer);
+    consumer.completionHandler(handler);
+  }
+
+  @Override
+  public void close(Handler<AsyncResult<Void>> handler) {
+    consumers.forEach(MessageConsumer::unregister);
+    consumers.clear();
+    handler.handle(Future.succeededFuture());
+  }
+
+  private Buffer value(String key) {
+    Buffer entry = map.get(key);
+    if (entry == null) {
+      return null;
+    }
+
+    if (isExpired(entry)) {
+      map.removeIfPresent(key, entry);
+      return null;
+    }
+
+    return entry.getBuffer(8, entry.length());
+  }
+
+  private static Buffer entry(long expiresAt, Buffer value) {
+    return Buffer.buffer(8 + value.length()).appendLong(expiresAt).appendBuffer(value);
+  }
+
+  private static boolean isExpired(Buffer entry) {
+    long expiresAt = entry.getLong(0);
+    return expiresAt > 0 && expiresAt < System.currentTimeMillis();
+  }
+}
@@ -0,0 +1,92 @@
+package com.vanmarsbergen.mars.data.redis.impl;
+
+import com.vanmarsbergen.mars.data.redis.CacheStore;
+import com.vanmarsbergen.mars.data.redis.Redis;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.op.SetOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CacheStore} on Redis. A connection in subscribe mode can't send other commands, so subscriptions get a
+ * client of their own. Redis delivers the published messages on the eventbus address "io.vertx.redis." + channel.
+ */
+public class RedisCacheStore implements CacheStore {
+  private final Vertx vertx;
+  private final JsonObject config;
+  private final RedisClient client;
+  private final List<MessageConsumer<JsonObject>> consumers = new ArrayList<>();
+  private RedisClient subscriber;
+
+  public RedisCacheStore(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.config = config;
+    this.client = Redis.createClient(vertx, config);
+  }
+
+  @Override
+  public void get(String key, Handler<AsyncResult<Buffer>> handler) {
+    client.getBinary(key, handler);
+  }
+
+  @Override
+  public void getMany(List<String> keys, Handler<AsyncResult<JsonArray>> handler) {
+    client.mgetMany(keys, handler);
+  }
+
+  @Override
+  public void set(String key, Buffer value, long ttl, Handler<AsyncResult<Void>> handler) {
+    client.setBinaryWithOptions(key, value, new SetOptions().setEX(ttl), handler);
+  }
+
+  @Override
+  public void increment(String key, Handler<AsyncResult<Long>> handler) {
+    client.incr(key, handler);
+  }
+
+  @Override
+  public void publish(String channel, String message, Handler<AsyncResult<Void>> handler) {
+    client.publish(channel, message, res -> handler.handle(res.map((Void) null)));
+  }
+
+  @Override
+  public void subscribe(String channel, Handler<String> messageHandler, Handler<AsyncResult<Void>> handler) {
+    if (subscriber == null) {
+      subscriber = Redis.createClient(vertx, config);
+    }
+
+    consumers.add(vertx.eventBus().<JsonObject>consumer("io.vertx.redis." + channel, msg -> {
+      JsonObject value = msg.body().getJsonObject("value");
+      if (value != null) {
+        messageHandler.handle(value.getString("message"));
+      }
+    }));
+    subscriber.subscribe(channel, res -> handler.handle(res.map((Void) null)));
+  }
+
+  @Override
+  public void close(Handler<AsyncResult<Void>> handler) {
+    consumers.forEach(MessageConsumer::unregister);
+    consumers.clear();
+
+    if (subscriber == null) {
+      client.close(handler);
+      return;
+    }
+
+    Future<Void> clientClosed = Future.future();
+    Future<Void> subscriberClosed = Future.future();
+    client.close(clientClosed.completer());
+    subscriber.close(subscriberClosed.completer());
+    clientClosed.compose(v -> subscriberClosed).setHandler(handler);
+  }
+}
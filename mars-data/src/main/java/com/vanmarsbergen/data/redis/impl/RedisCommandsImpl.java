@@ -0,0 +1,326 @@
+package com.vanmarsbergen.mars.data.redis.impl;
+
+import com.vanmarsbergen.mars.core.metrics.LatencyHistogram;
+import com.vanmarsbergen.mars.data.redis.Redis;
+import com.vanmarsbergen.mars.data.redis.RedisBatch;
+import com.vanmarsbergen.mars.data.redis.RedisCommands;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisTransaction;
+import io.vertx.redis.op.RangeLimitOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+public class RedisCommandsImpl implements RedisCommands {
+  private static final int DEFAULT_MAX_WAITING = 1000;
+
+  private final Context context;
+  private final RedisClient client;
+  private final int maxWaiting;
+  private final Map<String, LatencyHistogram> latencies = new TreeMap<>();
+  private int waiting = 0;
+  private long refused = 0;
+
+  public RedisCommandsImpl(Vertx vertx, JsonObject config) {
+    this.context = vertx.getOrCreateContext();
+    this.client = Redis.createClient(vertx, config);
+    this.maxWaiting = config.getInteger("max_waiting", DEFAULT_MAX_WAITING);
+  }
+
+  @Override
+  public void get(String key, Handler<AsyncResult<String>> handler) {
+    execute("GET", handler, done -> client.get(key, done));
+  }
+
+  @Override
+  public void getBinary(String key, Handler<AsyncResult<Buffer>> handler) {
+    execute("GET", handler, done -> client.getBinary(key, done));
+  }
+
+  @Override
+  public void set(String key, String value, Handler<AsyncResult<Void>> handler) {
+    execute("SET", handler, done -> client.set(key, value, done));
+  }
+
+  @Override
+  public void setBinary(String key, Buffer value, Handler<AsyncResult<Void>> handler) {
+    execute("SET", handler, done -> client.setBinary(key, value, done));
+  }
+
+  @Override
+  public void setex(String key, long seconds, String value, Handler<AsyncResult<Void>> handler) {
+    this.<String>execute("SETEX", res -> handler.handle(res.map((Void) null)),
+      done -> client.setex(key, seconds, value, done));
+  }
+
+  @Override
+  public void expire(String key, long seconds, Handler<AsyncResult<Boolean>> handler) {
+    this.<Long>execute("EXPIRE", res -> handler.handle(res.map(reply -> reply == 1)),
+      done -> client.expire(key, seconds, done));
+  }
+
+  @Override
+  public void ttl(String key, Handler<AsyncResult<Long>> handler) {
+    execute("TTL", handler, done -> client.ttl(key, done));
+  }
+
+  @Override
+  public void del(String key, Handler<AsyncResult<Long>> handler) {
+    execute("DEL", handler, done -> client.del(key, done));
+  }
+
+  @Override
+  public void incr(String key, Handler<AsyncResult<Long>> handler) {
+    execute("INCR", handler, done -> client.incr(key, done));
+  }
+
+  @Override
+  public void zadd(String key, double score, String member, Handler<AsyncResult<Long>> handler) {
+    execute("ZADD", handler, done -> client.zadd(key, score, member, done));
+  }
+
+  @Override
+  public void zscore(String key, String member, Handler<AsyncResult<String>> handler) {
+    execute("ZSCORE", handler, done -> client.zscore(key, member, done));
+  }
+
+  @Override
+  public void zrangebyscore(String key, String min, String max, Handler<AsyncResult<JsonArray>> handler) {
+    execute("ZRANGEBYSCORE", handler, done -> client.zrangebyscore(key, min, max, RangeLimitOptions.NONE, done));
+  }
+
+  @Override
+  public void zremrangebyscore(String key, String min, String max, Handler<AsyncResult<Long>> handler) {
+    execute("ZREMRANGEBYSCORE", handler, done -> client.zremrangebyscore(key, min, max, done));
+  }
+
+  @Override
+  public void eval(String script, List<String> keys, List<String> args, Handler<AsyncResult<JsonArray>> handler) {
+    execute("EVAL", handler, done -> client.eval(script, keys, args, done));
+  }
+
+  @Override
+  public void evalsha(String sha1, List<String> keys, List<String> args, Handler<AsyncResult<JsonArray>> handler) {
+    execute("EVALSHA", handler, done -> client.evalsha(sha1, keys, args, done));
+  }
+
+  @Override
+  public RedisBatch pipeline() {
+    return new Batch(false);
+  }
+
+  @Override
+  public RedisBatch multi() {
+    return new Batch(true);
+  }
+
+  @Override
+  public JsonObject stats() {
+    JsonObject commands = new JsonObject();
+    latencies.forEach((name, histogram) -> commands.put(name, histogram.toJson()));
+
+    return new JsonObject()
+      .put("commands", commands)
+      .put("waiting", waiting)
+      .put("refused", refused);
+  }
+
+  @Override
+  public void close(Handler<AsyncResult<Void>> handler) {
+    client.close(handler);
+  }
+
+  /**
+   * Number of commands waiting for a reply, to pick the least busy connection.
+   */
+  int waiting() {
+    return waiting;
+  }
+
+  /**
+   * Send a command unless too many are waiting for a reply already, and record its latency.
+   */
+  private <T> void execute(String name, Handler<AsyncResult<T>> handler, Consumer<Handler<AsyncResult<T>>> command) {
+    if (maxWaiting > 0 && waiting >= maxWaiting) {
+      refused++;
+      handler.handle(Future.failedFuture("Too many Redis commands waiting for a reply"));
+      return;
+    }
+
+    waiting++;
+    long start = System.nanoTime();
+    command.accept(res -> {
+      waiting--;
+      latencies.computeIfAbsent(name, key -> new LatencyHistogram()).recordNanos(System.nanoTime() - start);
+      handler.handle(res);
+    });
+  }
+
+  /**
+   * The client writes a command right away on its own context, and hops to it for every command sent from elsewhere.
+   * Writing all commands of a transaction in one hop keeps commands of other callers out of the MULTI/EXEC block.
+   */
+  private void onContext(Runnable writes) {
+    if (Vertx.currentContext() == context && Context.isOnEventLoopThread()) {
+      writes.run();
+    } else {
+      context.runOnContext(v -> writes.run());
+    }
+  }
+
+  private static <T> Handler<AsyncResult<T>> widen(Handler<AsyncResult<Object>> handler) {
+    return res -> handler.handle(res.map(reply -> (Object) reply));
+  }
+
+  private static final class BatchCommand {
+    private final String name;
+    private final BiConsumer<RedisClient, Handler<AsyncResult<Object>>> pipelined;
+    private final BiConsumer<RedisTransaction, Handler<AsyncResult<String>>> queued;
+
+    private BatchCommand(String name, BiConsumer<RedisClient, Handler<AsyncResult<Object>>> pipelined,
+                         BiConsumer<RedisTransaction, Handler<AsyncResult<String>>> queued) {
+      this.name = name;
+      this.pipelined = pipelined;
+      this.queued = queued;
+    }
+  }
+
+  private class Batch implements RedisBatch {
+    private final boolean transaction;
+    private final List<BatchCommand> commands = new ArrayList<>();
+
+    private Batch(boolean transaction) {
+      this.transaction = transaction;
+    }
+
+    private RedisBatch add(String name, BiConsumer<RedisClient, Handler<AsyncResult<Object>>> pipelined,
+                           BiConsumer<RedisTransaction, Handler<AsyncResult<String>>> queued) {
+      commands.add(new BatchCommand(name, pipelined, queued));
+      return this;
+    }
+
+    @Override
+    public RedisBatch get(String key) {
+      return add("GET", (c, done) -> c.get(key, widen(done)), (t, queued) -> t.get(key, queued));
+    }
+
+    @Override
+    public RedisBatch set(String key, String value) {
+      return add("SET", (c, done) -> c.set(key, value, widen(done)), (t, queued) -> t.set(key, value, queued));
+    }
+
+    @Override
+    public RedisBatch setex(String key, long seconds, String value) {
+      return add("SETEX", (c, done) -> c.setex(key, seconds, value, widen(done)),
+        (t, queued) -> t.setex(key, seconds, value, queued));
+    }
+
+    @Override
+    public RedisBatch expire(String key, long seconds) {
+      return add("EXPIRE", (c, done) -> c.expire(key, seconds, widen(done)),
+        (t, queued) -> t.expire(key, (int) seconds, queued));
+    }
+
+    @Override
+    public RedisBatch del(String key) {
+      return add("DEL", (c, done) -> c.del(key, widen(done)), (t, queued) -> t.del(key, queued));
+    }
+
+    @Override
+    public RedisBatch incr(String key) {
+      return add("INCR", (c, done) -> c.incr(key, widen(done)), (t, queued) -> t.incr(key, queued));
+    }
+
+    @Override
+    public RedisBatch zadd(String key, double score, String member) {
+      return add("ZADD", (c, done) -> c.zadd(key, score, member, widen(done)),
+        (t, queued) -> t.zadd(key, score, member, queued));
+    }
+
+    @Override
+    public RedisBatch zrangebyscore(String key, String min, String max) {
+      return add("ZRANGEBYSCORE", (c, done) -> c.zrangebyscore(key, min, max, RangeLimitOptions.NONE, widen(done)),
+        (t, queued) -> t.zrangebyscore(key, min, max, RangeLimitOptions.NONE, queued));
+    }
+
+    @Override
+    public RedisBatch zremrangebyscore(String key, String min, String max) {
+      return add("ZREMRANGEBYSCORE", (c, done) -> c.zremrangebyscore(key, min, max, widen(done)),
+        (t, queued) -> t.zremrangebyscore(key, min, max, queued));
+    }
+
+    @Override
+    public void exec(Handler<AsyncResult<JsonArray>> handler) {
+      if (commands.isEmpty()) {
+        handler.handle(Future.succeededFuture(new JsonArray()));
+        return;
+      }
+
+      if (transaction) {
+        execTransaction(handler);
+      } else {
+        execPipeline(handler);
+      }
+    }
+
+    private void execPipeline(Handler<AsyncResult<JsonArray>> handler) {
+      Object[] replies = new Object[commands.size()];
+      int[] remaining = {commands.size()};
+      Throwable[] failure = {null};
+
+      for (int i = 0; i < commands.size(); i++) {
+        int index = i;
+        BatchCommand command = commands.get(i);
+        execute(command.name, res -> {
+          if (res.failed() && failure[0] == null) {
+            failure[0] = res.cause();
+          } else if (res.succeeded()) {
+            replies[index] = res.result();
+          }
+
+          if (--remaining[0] == 0) {
+            handler.handle(failure[0] == null ?
+              Future.succeededFuture(new JsonArray(Arrays.asList(replies))) : Future.failedFuture(failure[0]));
+          }
+        }, done -> command.pipelined.accept(client, done));
+      }
+    }
+
+    private void execTransaction(Handler<AsyncResult<JsonArray>> handler) {
+      Throwable[] failure = {null};
+      Handler<AsyncResult<String>> queued = res -> {
+        if (res.failed() && failure[0] == null) {
+          failure[0] = res.cause();
+        }
+      };
+
+      execute("MULTI", handler, done -> onContext(() -> {
+        RedisTransaction transaction = client.transaction();
+        transaction.multi(queued);
+        commands.forEach(command -> command.queued.accept(transaction, queued));
+        transaction.exec(res -> {
+          if (failure[0] != null || res.failed()) {
+            done.handle(Future.failedFuture(failure[0] != null ? failure[0] : res.cause()));
+          } else if (res.result() == null) {
+            done.handle(Future.failedFuture("Redis transaction aborted"));
+          } else {
+            done.handle(res);
+          }
+        });
+      }));
+    }
+  }
+}
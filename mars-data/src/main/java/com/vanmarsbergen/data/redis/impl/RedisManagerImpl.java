@@ -0,0 +1,191 @@
+package com.vanmarsbergen.mars.data.redis.impl;
+
+import com.vanmarsbergen.mars.data.redis.RedisCommands;
+import com.vanmarsbergen.mars.data.redis.RedisManager;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class RedisManagerImpl implements RedisManager {
+  private static final int DEFAULT_CONNECTIONS = 1;
+  private static final int POINTS_PER_WEIGHT = 160;
+
+  private final Map<String, Shard> shards = new LinkedHashMap<>();
+  private final TreeMap<Long, Shard> ring = new TreeMap<>();
+
+  public RedisManagerImpl(Vertx vertx, JsonObject config) {
+    int connections = config.getInteger("connections", DEFAULT_CONNECTIONS);
+    JsonArray shardConfigs = config.getJsonArray("shards", new JsonArray().add(config));
+    checkShards(shardConfigs, connections);
+
+    for (int i = 0; i < shardConfigs.size(); i++) {
+      JsonObject shardConfig = shardConfigs.getJsonObject(i);
+      String address = shardConfig.getString("host", "localhost") + ":" + shardConfig.getInteger("port", 6379);
+      String name = shardConfig.getString("name", address);
+      Shard shard = new Shard(name, address);
+      for (int c = 0; c < shardConfig.getInteger("connections", connections); c++) {
+        shard.connections.add(new RedisCommandsImpl(vertx, shardConfig));
+      }
+      shards.put(name, shard);
+
+      // Four points per digest, like ketama, so the same shard names give the same ring on every node
+      int points = POINTS_PER_WEIGHT * shardConfig.getInteger("weight", 1);
+      for (int p = 0; p < points / 4; p++) {
+        byte[] digest = md5(name + "-" + p);
+        for (int h = 0; h < 4; h++) {
+          ring.put(point(digest, h), shard);
+        }
+      }
+    }
+
+    if (shards.isEmpty()) {
+      throw new IllegalArgumentException("At least one Redis shard should be configured");
+    }
+  }
+
+  /**
+   * Refuse shards that would never be used before any connection is made: without connections or without points on
+   * the ring.
+   */
+  private static void checkShards(JsonArray shardConfigs, int connections) {
+    for (int i = 0; i < shardConfigs.size(); i++) {
+      JsonObject shardConfig = shardConfigs.getJsonObject(i);
+      if (shardConfig.getInteger("connections", connections) < 1 || shardConfig.getInteger("weight", 1) < 1) {
+        String name = shardConfig.getString("name", String.valueOf(i));
+        throw new IllegalArgumentException("Redis shard " + name + " needs at least one connection and weight 1");
+      }
+    }
+  }
+
+  @Override
+  public RedisCommands forKey(String key) {
+    Shard shard = shardOf(key);
+    shard.routed++;
+    return shard.leastBusy();
+  }
+
+  @Override
+  public RedisCommands shard(String name) {
+    Shard shard = shards.get(name);
+    if (shard == null) {
+      throw new IllegalArgumentException("Unknown Redis shard " + name);
+    }
+
+    return shard.leastBusy();
+  }
+
+  @Override
+  public String shardName(String key) {
+    return shardOf(key).name;
+  }
+
+  @Override
+  public List<String> shardNames() {
+    return new ArrayList<>(shards.keySet());
+  }
+
+  @Override
+  public JsonObject stats() {
+    JsonObject stats = new JsonObject();
+    shards.forEach((name, shard) -> {
+      JsonArray connections = new JsonArray();
+      int waiting = 0;
+      for (RedisCommandsImpl connection : shard.connections) {
+        connections.add(connection.stats());
+        waiting += connection.waiting();
+      }
+
+      stats.put(name, new JsonObject()
+        .put("host", shard.address)
+        .put("routed", shard.routed)
+        .put("waiting", waiting)
+        .put("connections", connections));
+    });
+
+    return stats;
+  }
+
+  @Override
+  public void close(Handler<AsyncResult<Void>> handler) {
+    List<Future<Void>> closed = new ArrayList<>();
+    shards.values().forEach(shard -> shard.connections.forEach(connection -> {
+      Future<Void> future = Future.future();
+      connection.close(future.completer());
+      closed.add(future);
+    }));
+
+    CompositeFuture.all(new ArrayList<>(closed)).setHandler(res -> handler.handle(res.map((Void) null)));
+  }
+
+  private Shard shardOf(String key) {
+    SortedMap<Long, Shard> tail = ring.tailMap(point(md5(hashTag(key)), 0));
+    return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+  }
+
+  /**
+   * The part of the key between the first "{" and the next "}", or the whole key when there is none.
+   */
+  private static String hashTag(String key) {
+    int start = key.indexOf('{');
+    if (start >= 0) {
+      int end = key.indexOf('}', start + 1);
+      if (end > start + 1) {
+        return key.substring(start + 1, end);
+      }
+    }
+
+    return key;
+  }
+
+  private static long point(byte[] digest, int index) {
+    return ((long) (digest[3 + index * 4] & 0xFF) << 24)
+      | ((long) (digest[2 + index * 4] & 0xFF) << 16)
+      | ((long) (digest[1 + index * 4] & 0xFF) << 8)
+      | (digest[index * 4] & 0xFF);
+  }
+
+  private static byte[] md5(String value) {
+    try {
+      return MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class Shard {
+    private final String name;
+    private final String address;
+    private final List<RedisCommandsImpl> connections = new ArrayList<>();
+    private long routed = 0;
+
+    private Shard(String name, String address) {
+      this.name = name;
+      this.address = address;
+    }
+
+    private RedisCommandsImpl leastBusy() {
+      RedisCommandsImpl leastBusy = connections.get(0);
+      for (int i = 1; i < connections.size(); i++) {
+        if (connections.get(i).waiting() < leastBusy.waiting()) {
+          leastBusy = connections.get(i);
+        }
+      }
+
+      return leastBusy;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package com.vanmarsbergen.mars.data.mysql;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.UpdateResult;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs bulk inserts on a stand-in JDBC connection that numbers the inserted rows per table, like AUTO_INCREMENT.
+ */
+public class BulkInsertTest {
+  private static final String PROJECTS = "insert into projects (name, settings) values (?, ?)";
+  private static final String TAGS = "insert into tags (project_id, name) values (?, ?)";
+
+  private final List<List<Object>> executed = new ArrayList<>();
+  private final Map<String, Long> nextIds = new HashMap<>();
+
+  @Test
+  public void keyPropagation() throws Exception {
+    JsonObject request = new JsonObject().put("multiRowInsertSize", 2).put("inserts", new JsonArray()
+      .add(new JsonObject().put("query", PROJECTS).put("rows", new JsonArray()
+        .add(new JsonArray().add("Mars").add(new JsonObject().put("key", new JsonArray().add(7).add(8))))
+        .add(new JsonArray().add("Venus").addNull())
+        .add(new JsonArray().add("Jupiter").addNull())))
+      .add(new JsonObject().put("query", TAGS).put("rows", new JsonArray()
+        .add(new JsonArray().addNull().add("red"))
+        .add(new JsonArray().addNull().add("blue"))
+        .add(new JsonArray().add(99).add("green")))
+        .put("refs", new JsonArray()
+          .add(new JsonObject().put("row", 0).put("param", 0).put("key", new JsonArray().add(0).add(2)))
+          .add(new JsonObject().put("row", 1).put("param", 0).put("key", new JsonArray().add(0).add(0))))));
+
+    BulkInsert insert = BulkInsert.fromRequest(request, 1000);
+    List<UpdateResult> results = insert.execute(connection());
+
+    assertEquals("Three projects in two statements, three tags in two", 4, results.size());
+    assertEquals(new JsonArray()
+      .add(new JsonArray().add(1L).add(2L).add(3L))
+      .add(new JsonArray().add(1L).add(2L).add(3L)), insert.getKeys(results));
+
+    assertEquals("A JSON column is inserted as is", "{\"key\":[7,8]}", executed.get(0).get(1).toString());
+    assertEquals(3L, executed.get(2).get(0));
+    assertEquals("red", executed.get(2).get(1));
+    assertEquals(1L, executed.get(2).get(2));
+    assertEquals("blue", executed.get(2).get(3));
+    assertEquals(99, executed.get(3).get(0));
+  }
+
+  @Test
+  public void invalidReferences() {
+    JsonObject project = new JsonObject().put("query", PROJECTS)
+      .put("rows", new JsonArray().add(new JsonArray().add("Mars").addNull()));
+
+    assertInvalid(project.copy().put("refs", new JsonArray()
+      .add(new JsonObject().put("row", 0).put("param", 0).put("key", new JsonArray().add(0).add(0)))));
+    assertInvalid(project, new JsonObject().put("query", TAGS)
+      .put("rows", new JsonArray().add(new JsonArray().addNull().add("red")))
+      .put("refs", new JsonArray()
+        .add(new JsonObject().put("row", 0).put("param", 0).put("key", new JsonArray().add(0).add(1)))));
+    assertInvalid(project, new JsonObject().put("query", TAGS)
+      .put("rows", new JsonArray().add(new JsonArray().addNull().add("red")))
+      .put("refs", new JsonArray()
+        .add(new JsonObject().put("row", 0).put("param", 2).put("key", new JsonArray().add(0).add(0)))));
+  }
+
+  private static void assertInvalid(JsonObject... inserts) {
+    JsonArray request = new JsonArray();
+    for (JsonObject insert : inserts) {
+      request.add(insert);
+    }
+
+    try {
+      BulkInsert.fromRequest(new JsonObject().put("inserts", request), 1000);
+      fail("Expected an invalid key reference");
+    } catch (IllegalArgumentException e) {
+      assertEquals(0, e.getMessage().indexOf("Invalid key reference"));
+    }
+  }
+
+  private Connection connection() {
+    return proxy(Connection.class, (method, args) -> {
+      switch (method) {
+        case "prepareStatement":
+          return statement((String) args[0]);
+        case "getAutoCommit":
+          return true;
+        default:
+          return null;
+      }
+    });
+  }
+
+  private PreparedStatement statement(String query) {
+    String table = query.split(" ")[2];
+    List<Object> params = new ArrayList<>();
+    List<Long> keys = new ArrayList<>();
+
+    return proxy(PreparedStatement.class, (method, args) -> {
+      if (method.startsWith("set") && args.length >= 2 && args[0] instanceof Integer) {
+        while (params.size() < (Integer) args[0]) {
+          params.add(null);
+        }
+        params.set((Integer) args[0] - 1, method.equals("setNull") ? null : args[1]);
+        return null;
+      }
+
+      switch (method) {
+        case "executeUpdate":
+          executed.add(params);
+          int rows = query.split("\\), \\(").length;
+          for (int i = 0; i < rows; i++) {
+            long id = nextIds.merge(table, 1L, Long::sum);
+            keys.add(id);
+          }
+          return rows;
+        case "getGeneratedKeys":
+          return generatedKeys(keys);
+        default:
+          return null;
+      }
+    });
+  }
+
+  private static ResultSet generatedKeys(List<Long> keys) {
+    int[] position = {-1};
+
+    return proxy(ResultSet.class, (method, args) -> {
+      switch (method) {
+        case "next":
+          return ++position[0] < keys.size();
+        case "getLong":
+          return keys.get(position[0]);
+        default:
+          return null;
+      }
+    });
+  }
+
+  private interface Invocation {
+    Object invoke(String method, Object[] args);
+  }
+
+  private static <T> T proxy(Class<T> type, Invocation invocation) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+      (proxy, method, args) -> invocation.invoke(method.getName(), args == null ? new Object[0] : args)));
+  }
+}
@@ -0,0 +1,66 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A Vert.x instance with one context the code under test runs on, as it would from a verticle. The test thread waits
+ * at most ten seconds for every result.
+ */
+class ContextRunner {
+  private static final long TIMEOUT_SECONDS = 10;
+
+  private final Vertx vertx = Vertx.vertx();
+  private final Context context = vertx.getOrCreateContext();
+
+  Vertx vertx() {
+    return vertx;
+  }
+
+  /**
+   * Start an asynchronous operation on the context and wait for its result. A failure is thrown as the cause of an
+   * {@link java.util.concurrent.ExecutionException}.
+   */
+  <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    context.runOnContext(v -> operation.accept(res -> {
+      if (res.succeeded()) {
+        future.complete(res.result());
+      } else {
+        future.completeExceptionally(res.cause());
+      }
+    }));
+
+    return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Run the supplier on the context and return what it returns, or throw what it throws as the cause of an
+   * {@link java.util.concurrent.ExecutionException}.
+   */
+  <T> T onContext(Supplier<T> supplier) throws Exception {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    context.runOnContext(v -> {
+      try {
+        future.complete(supplier.get());
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    });
+
+    return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  void close() throws Exception {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    vertx.close(res -> closed.complete(null));
+    closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,156 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Two nodes sharing a {@link CacheStore#local(Vertx) local store}, each with its own near cache.
+ */
+public class ModelCacheTest {
+  private static final JsonObject CONFIG = new JsonObject().put("store", "local").put("ttl", 60);
+  private static final JsonObject ROW = new JsonObject().put("id", 42).put("name", "Mars");
+
+  private ContextRunner runner;
+  private Vertx vertx;
+  private ModelCache node;
+  private ModelCache otherNode;
+
+  @Before
+  public void setUp() throws Exception {
+    runner = new ContextRunner();
+    vertx = runner.vertx();
+    node = runner.onContext(() -> new ModelCache(vertx, CONFIG));
+    otherNode = runner.onContext(() -> new ModelCache(vertx, CONFIG));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    runner.close();
+  }
+
+  @Test
+  public void readThrough() throws Exception {
+    assertNull(get(node, "users", "pk:42"));
+
+    ModelCache.Version version = runner.onContext(() -> node.version("users"));
+    assertNotNull("The version is known after a miss", version);
+    runner.onContext(() -> {
+      node.put("users", "pk:42", ROW, version);
+      return null;
+    });
+
+    assertEquals(ROW, get(node, "users", "pk:42"));
+    assertEquals(ROW, get(otherNode, "users", "pk:42"));
+
+    JsonObject stats = runner.onContext(node::stats);
+    assertEquals(1L, (long) stats.getLong("misses"));
+    assertEquals(1L, (long) stats.getLong("near_hits"));
+    assertEquals(1L, (long) runner.onContext(otherNode::stats).getLong("remote_hits"));
+  }
+
+  @Test
+  public void invalidation() throws Exception {
+    cache(node, "users", "pk:42", ROW);
+    assertEquals(ROW, get(otherNode, "users", "pk:42"));
+    cache(node, "projects", "pk:1", ROW);
+
+    runner.onContext(() -> {
+      node.invalidate("users");
+      return null;
+    });
+    awaitReceived(otherNode, 1);
+
+    assertNull(get(node, "users", "pk:42"));
+    assertNull(get(otherNode, "users", "pk:42"));
+    assertEquals("Other tables stay cached", ROW, get(node, "projects", "pk:1"));
+  }
+
+  @Test
+  public void invalidationOfAllTables() throws Exception {
+    cache(node, "users", "pk:42", ROW);
+    cache(node, "projects", "pk:1", ROW);
+
+    runner.onContext(() -> {
+      node.invalidate(null);
+      return null;
+    });
+    awaitReceived(otherNode, 1);
+
+    assertNull(get(otherNode, "users", "pk:42"));
+    assertNull(get(otherNode, "projects", "pk:1"));
+  }
+
+  @Test
+  public void versionBump() throws Exception {
+    CacheStore store = CacheStore.local(vertx);
+    cache(node, "users", "pk:42", ROW);
+    ModelCache.Version before = runner.onContext(() -> node.version("users"));
+
+    runner.onContext(() -> {
+      node.invalidate("users");
+      return null;
+    });
+    awaitReceived(otherNode, 1);
+
+    assertNull("The version is forgotten on invalidation", runner.onContext(() -> node.version("users")));
+    JsonArray versions = runner.<JsonArray>await(handler ->
+      store.getMany(Arrays.asList("mars:model:version", "mars:model:version:users"), handler));
+    assertNull(versions.getString(0));
+    assertEquals("1", versions.getString(1));
+
+    assertNull(get(node, "users", "pk:42"));
+    ModelCache.Version after = runner.onContext(() -> node.version("users"));
+    assertNotNull(after);
+    assertFalse(before == after);
+
+    // A row read with the version from before the write is not stored
+    runner.onContext(() -> {
+      node.put("users", "pk:42", ROW, before);
+      return null;
+    });
+    assertNull(get(node, "users", "pk:42"));
+  }
+
+  @Test
+  public void cachedTables() throws Exception {
+    JsonObject config = CONFIG.copy().put("tables", new JsonArray().add("users"));
+    ModelCache users = runner.onContext(() -> new ModelCache(vertx, config));
+
+    assertTrue(users.isCached("users"));
+    assertFalse(users.isCached("projects"));
+    assertTrue("Writes to an unknown table invalidate all tables", users.isCached(null));
+    assertTrue(node.isCached("projects"));
+  }
+
+  private void cache(ModelCache cache, String tableName, String key, JsonObject row) throws Exception {
+    assertNull(get(cache, tableName, key));
+    runner.onContext(() -> {
+      cache.put(tableName, key, row, cache.version(tableName));
+      return null;
+    });
+  }
+
+  private JsonObject get(ModelCache cache, String tableName, String key) throws Exception {
+    return runner.<JsonObject>await(handler -> cache.get(tableName, key, handler));
+  }
+
+  private void awaitReceived(ModelCache cache, long received) throws Exception {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (runner.onContext(cache::stats).getLong("received") < received) {
+      assertTrue("Invalidation was not received", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
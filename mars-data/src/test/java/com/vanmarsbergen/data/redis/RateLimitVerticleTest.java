@@ -0,0 +1,91 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The token bucket script of the {@link RateLimitVerticle}, run by a real Redis server. Skipped unless the server is
+ * given with -Dredis.host (and -Dredis.port when it isn't 6379).
+ */
+public class RateLimitVerticleTest {
+  private ContextRunner runner;
+  private String key;
+
+  @Before
+  public void setUp() throws Exception {
+    String host = System.getProperty("redis.host");
+    assumeTrue("No Redis server given with -Dredis.host", host != null);
+
+    runner = new ContextRunner();
+    key = "test:" + UUID.randomUUID();
+    JsonObject redis = new JsonObject()
+      .put("host", host)
+      .put("port", Integer.getInteger("redis.port", 6379));
+    JsonObject config = new JsonObject().put("rate_limit", new JsonObject().put("redis", redis));
+
+    runner.<String>await(done ->
+      runner.vertx().deployVerticle(new RateLimitVerticle(), new DeploymentOptions().setConfig(config), done));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (runner != null) {
+      runner.close();
+    }
+  }
+
+  @Test
+  public void grantsUpToTheBurst() throws Exception {
+    assertEquals(3L, (long) lease(3, 1d, 5).getLong("granted"));
+    assertEquals("Only the rest of the burst", 2L, (long) lease(5, 1d, 5).getLong("granted"));
+
+    JsonObject empty = lease(1, 1d, 5);
+    assertEquals(0L, (long) empty.getLong("granted"));
+    assertTrue("About a second until the next token", empty.getLong("retryAfter") > 900);
+    assertTrue(empty.getLong("retryAfter") <= 1000);
+  }
+
+  @Test
+  public void refillsAtTheRate() throws Exception {
+    assertEquals(2L, (long) lease(2, 20d, 2).getLong("granted"));
+    assertEquals(0L, (long) lease(1, 20d, 2).getLong("granted"));
+
+    Thread.sleep(120);
+    assertEquals("Two tokens come back in 100 milliseconds", 2L, (long) lease(5, 20d, 2).getLong("granted"));
+  }
+
+  @Test
+  public void takesReturnedTokensBack() throws Exception {
+    assertEquals(5L, (long) lease(5, 0.1d, 5).getLong("granted"));
+    assertEquals("Two unused tokens are given back", 2L, (long) lease(5, 0.1d, 5, 2).getLong("granted"));
+    assertEquals("No more than the burst", 5L, (long) lease(5, 0.1d, 5, 9).getLong("granted"));
+  }
+
+  private JsonObject lease(int tokens, double rate, int burst) throws Exception {
+    return lease(tokens, rate, burst, 0);
+  }
+
+  private JsonObject lease(int tokens, double rate, int burst, int returned) throws Exception {
+    JsonObject request = new JsonObject()
+      .put("key", key)
+      .put("tokens", tokens)
+      .put("rate", rate)
+      .put("burst", burst)
+      .put("returned", returned);
+
+    Message<JsonObject> reply = runner.await(done ->
+      runner.vertx().eventBus().<JsonObject>send("redis.ratelimit.lease", request, done));
+
+    return reply.body();
+  }
+}
@@ -0,0 +1,203 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetSocket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link RedisCommands} against a stand-in server that speaks just enough RESP: it records every command and answers
+ * INCR with 1, GET with nil, FAIL with an error and anything else with OK, queueing the replies within MULTI/EXEC.
+ */
+public class RedisCommandsTest {
+  private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+  private ContextRunner runner;
+  private Vertx vertx;
+  private RedisCommands redis;
+
+  @Before
+  public void setUp() throws Exception {
+    runner = new ContextRunner();
+    vertx = runner.vertx();
+
+    NetServer server = runner.await(done ->
+      vertx.createNetServer().connectHandler(this::serve).listen(0, "localhost", done));
+    int port = server.actualPort();
+
+    redis = runner.onContext(() -> RedisCommands.create(vertx, new JsonObject().put("port", port).put("max_waiting", 8)));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    runner.close();
+  }
+
+  @Test
+  public void commands() throws Exception {
+    assertEquals(1L, (long) runner.<Long>await(done -> redis.incr("counter", done)));
+    assertEquals(null, runner.<String>await(done -> redis.get("missing", done)));
+    assertEquals(Boolean.FALSE, runner.<Boolean>await(done -> redis.expire("missing", 10, done)));
+
+    JsonObject stats = runner.onContext(redis::stats);
+    assertEquals(0, (int) stats.getInteger("waiting"));
+    assertEquals(1L, (long) stats.getJsonObject("commands").getJsonObject("INCR").getLong("count"));
+  }
+
+  @Test
+  public void transactionIsNotInterleaved() throws Exception {
+    JsonArray replies = runner.<JsonArray>await(done -> {
+      redis.incr("before", res -> {});
+      redis.multi().set("token", "secret").expire("token", 60).incr("tokens").exec(done);
+      redis.incr("after", res -> {});
+    });
+    assertEquals(3, replies.size());
+    assertEquals(1L, (long) replies.getLong(2));
+
+    awaitReceived(7);
+    int multi = received.indexOf("MULTI");
+    assertEquals("INCR before", received.get(multi - 1));
+    assertEquals("SET token", received.get(multi + 1));
+    assertEquals("EXPIRE token", received.get(multi + 2));
+    assertEquals("INCR tokens", received.get(multi + 3));
+    assertEquals("EXEC", received.get(multi + 4));
+    assertEquals("INCR after", received.get(multi + 5));
+  }
+
+  @Test
+  public void transactionFailsWhenACommandIsRefused() throws Exception {
+    try {
+      runner.<JsonArray>await(done -> redis.multi().set("FAIL", "value").incr("counter").exec(done));
+      fail("The transaction should fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().getMessage().contains("refused"));
+    }
+  }
+
+  @Test
+  public void pipelineRunsEveryCommand() throws Exception {
+    try {
+      runner.<JsonArray>await(done -> redis.pipeline().incr("a").set("FAIL", "value").incr("b").exec(done));
+      fail("The pipeline should fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().getMessage().contains("refused"));
+    }
+
+    assertTrue(received.contains("INCR a"));
+    assertTrue(received.contains("INCR b"));
+
+    JsonArray replies = runner.<JsonArray>await(done -> redis.pipeline().incr("a").get("b").exec(done));
+    assertEquals(1L, (long) replies.getLong(0));
+    assertEquals(null, replies.getValue(1));
+  }
+
+  @Test
+  public void refusesCommandsOverMaxWaiting() throws Exception {
+    List<Boolean> results = runner.onContext(() -> {
+      List<Boolean> sent = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        redis.incr("counter", res -> sent.add(res.succeeded()));
+      }
+      return sent;
+    });
+
+    awaitReceived(8);
+    Thread.sleep(100);
+    List<Boolean> copy = runner.onContext(() -> new ArrayList<>(results));
+    assertEquals(10, copy.size());
+    assertEquals(8L, copy.stream().filter(succeeded -> succeeded).count());
+    assertEquals(2L, (long) runner.onContext(redis::stats).getLong("refused"));
+  }
+
+  private void serve(NetSocket socket) {
+    Buffer[] pending = {Buffer.buffer()};
+    List<String> queued = new ArrayList<>();
+    boolean[] multi = {false};
+
+    socket.handler(data -> {
+      pending[0].appendBuffer(data);
+      List<String> command;
+      while ((command = parse(pending)) != null) {
+        String name = command.get(0).toUpperCase();
+        received.add(command.size() > 1 ? name + " " + command.get(1) : name);
+
+        String reply = "INCR".equals(name) ? ":1\r\n" : "GET".equals(name) ? "$-1\r\n"
+          : "EXPIRE".equals(name) ? ":0\r\n" : "+OK\r\n";
+        if (command.size() > 1 && "FAIL".equals(command.get(1))) {
+          reply = "-ERR refused\r\n";
+        }
+
+        if ("MULTI".equals(name)) {
+          multi[0] = true;
+          queued.clear();
+        } else if ("EXEC".equals(name)) {
+          multi[0] = false;
+          reply = queued.contains("-ERR refused\r\n") ? "-EXECABORT refused\r\n" : "*" + queued.size() + "\r\n"
+            + String.join("", queued);
+        } else if (multi[0]) {
+          queued.add(reply);
+          reply = reply.startsWith("-") ? reply : "+QUEUED\r\n";
+        }
+
+        socket.write(reply);
+      }
+    });
+  }
+
+  /**
+   * Parse and remove one complete command, an array of bulk strings, from the buffer.
+   */
+  private static List<String> parse(Buffer[] buffer) {
+    String text = buffer[0].toString(StandardCharsets.ISO_8859_1);
+    if (!text.startsWith("*")) {
+      return null;
+    }
+
+    int position = text.indexOf("\r\n");
+    if (position == -1) {
+      return null;
+    }
+
+    int count = Integer.parseInt(text.substring(1, position));
+    position += 2;
+    List<String> command = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      int end = text.indexOf("\r\n", position);
+      if (end == -1) {
+        return null;
+      }
+      int length = Integer.parseInt(text.substring(position + 1, end));
+      if (text.length() < end + 2 + length + 2) {
+        return null;
+      }
+      command.add(text.substring(end + 2, end + 2 + length));
+      position = end + 2 + length + 2;
+    }
+
+    buffer[0] = buffer[0].getBuffer(position, buffer[0].length());
+    return command;
+  }
+
+  private void awaitReceived(int commands) throws Exception {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (received.size() < commands) {
+      assertTrue("Commands were not received", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.vanmarsbergen.mars.data.redis;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.fail;
+
+/**
+ * The configuration checks of the {@link RedisManager}, which run before any connection is made.
+ */
+public class RedisManagerTest {
+  private ContextRunner runner;
+
+  @Before
+  public void setUp() {
+    runner = new ContextRunner();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    runner.close();
+  }
+
+  @Test
+  public void refusesShardsWithoutConnections() {
+    assertInvalid(new JsonObject().put("connections", 0));
+    assertInvalid(new JsonObject().put("shards", new JsonArray()
+      .add(new JsonObject().put("name", "a"))
+      .add(new JsonObject().put("name", "b").put("connections", 0))));
+  }
+
+  @Test
+  public void refusesShardsWithoutWeight() {
+    assertInvalid(new JsonObject().put("shards", new JsonArray()
+      .add(new JsonObject().put("name", "a"))
+      .add(new JsonObject().put("name", "b").put("weight", 0))));
+  }
+
+  private void assertInvalid(JsonObject config) {
+    try {
+      RedisManager.create(runner.vertx(), config);
+      fail("Expected the configuration to be refused: " + config.encode());
+    } catch (IllegalArgumentException expected) {
+      // Refused
+    }
+  }
+}
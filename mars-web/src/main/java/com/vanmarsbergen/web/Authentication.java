@@ -2,9 +2,13 @@ package com.vanmarsbergen.mars.web;
 
 import com.vanmarsbergen.mars.web.impl.AuthenticationImpl;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTOptions;
 import io.vertx.ext.web.handler.JWTAuthHandler;
 
+import java.util.UUID;
+
 public interface Authentication {
   static JWTAuth getAuthProvider(Vertx vertx, String password) {
     return new AuthenticationImpl(vertx, password).getAuthProvider();
@@ -13,4 +17,16 @@ public interface Authentication {
   static JWTAuthHandler getJWTAuthHandler(Vertx vertx, String password) {
     return JWTAuthHandler.create(Authentication.getAuthProvider(vertx, password));
   }
+
+  /**
+   * Generate a token with a random "jti" claim unless the claims have one, so the token can be revoked, see
+   * {@link TokenRevocation}.
+   */
+  static String generateToken(JWTAuth authProvider, JsonObject claims, JWTOptions options) {
+    if (claims.containsKey("jti")) {
+      return authProvider.generateToken(claims, options);
+    }
+
+    return authProvider.generateToken(claims.copy().put("jti", UUID.randomUUID().toString()), options);
+  }
 }
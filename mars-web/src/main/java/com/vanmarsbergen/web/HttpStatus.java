@@ -25,6 +25,7 @@ public class HttpStatus {
   public static final HttpStatus TEAPOT = new HttpStatus(418, "I'm a teapot");
   public static final HttpStatus AUTHENTICATION_VERIFICATION_FAILED = new HttpStatus(420, "Authentication Verification Failed");
   public static final HttpStatus LOCKED = new HttpStatus(423, "Locked");
+  public static final HttpStatus TOO_MANY_REQUESTS = new HttpStatus(429, "Too Many Requests");
   public static final HttpStatus INTERNAL_SERVER_ERROR = new HttpStatus(500, "Internal Server Error");
   public static final HttpStatus NOT_IMPLEMENTED = new HttpStatus(501, "Not Implemented");
   public static final HttpStatus BAD_GATEWAY = new HttpStatus(502, "Bad Gateway");
@@ -0,0 +1,44 @@
+package com.vanmarsbergen.mars.web;
+
+import com.vanmarsbergen.mars.web.impl.RateLimitHandlerImpl;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Limits the requests per client, the subject of the JWT token or else the IP address, with a token bucket in Redis
+ * shared by all nodes (the RateLimitVerticle of mars-data). Requests over the limit end with 429 and a Retry-After
+ * header.
+ *
+ * A node leases tokens of a client in batches and hands them out locally until they run out or the lease is older
+ * than "lease_ttl" milliseconds. A batch grows with the demand of the client on the node up to "lease_size" tokens,
+ * so Redis is reached about once per "lease_size" requests of a busy client, and the tokens left when a lease expires
+ * are given back. Configured with "rate_limit": {"rate": 10, "burst": 50, "lease_size": 10, "lease_ttl": 1000,
+ * "fail_open": true, "trust_forwarded_for": false}, where "rate" is the amount of requests per second and "burst" the
+ * amount that may be made at once. With "fail_open" requests are allowed when no lease can be taken, e.g. when Redis is
+ * down, or else they end with 503. Register it after the JWT authentication handler to limit by subject.
+ *
+ * Clients without a token are limited by the address the request came from. Behind a load balancer that is the
+ * address of the load balancer, so they'd all share one bucket; set "trust_forwarded_for" when the load balancer adds
+ * the client address to the X-Forwarded-For header, then its last address is used. Don't set it when clients can
+ * reach the nodes directly, as they could pick any address then.
+ *
+ * Use it from the context it was created on.
+ */
+public interface RateLimitHandler extends Handler<RoutingContext> {
+
+  static RateLimitHandler create(Vertx vertx, JsonObject config) {
+    return new RateLimitHandlerImpl(vertx, config);
+  }
+
+  /**
+   * Requests allowed and limited, and the leases requested from Redis.
+   */
+  JsonObject stats();
+
+  /**
+   * Stop the timer that forgets the leases of clients that went away and give the unused tokens back.
+   */
+  void close();
+}
@@ -0,0 +1,49 @@
+package com.vanmarsbergen.mars.web;
+
+import com.vanmarsbergen.mars.web.impl.TokenRevocationImpl;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Revocation of JWT tokens by their "jti" claim, stored in Redis by the TokenRevocationVerticle of mars-data.
+ *
+ * Every node keeps a Bloom filter of the revoked token ids, filled every "sync_interval" milliseconds and whenever a
+ * token is revoked on any node, so only tokens in the filter (the revoked ones and about "false_positive_rate" of the
+ * others) are checked in Redis. Configured with "revocation": {"expected_tokens": 100000,
+ * "false_positive_rate": 0.001, "sync_interval": 60000}.
+ *
+ * Tokens without a "jti" claim are refused while revocation is enabled, generate tokens with
+ * {@link Authentication#generateToken} to give them one.
+ */
+public interface TokenRevocation {
+
+  static TokenRevocation create(Vertx vertx, JsonObject config) {
+    return new TokenRevocationImpl(vertx, config);
+  }
+
+  /**
+   * Revoke a token until it expires.
+   *
+   * @param tokenId   "jti" claim of the token
+   * @param expiresAt Time the token expires in milliseconds since the epoch
+   */
+  void revoke(String tokenId, long expiresAt, Handler<AsyncResult<Void>> handler);
+
+  void isRevoked(String tokenId, Handler<AsyncResult<Boolean>> handler);
+
+  /**
+   * Route handler that ends requests with a revoked token with 401, register it after the JWT authentication
+   * handler.
+   */
+  Handler<RoutingContext> handler();
+
+  /**
+   * Size of the filter and how many checks it answered without Redis.
+   */
+  JsonObject stats();
+
+  void close();
+}
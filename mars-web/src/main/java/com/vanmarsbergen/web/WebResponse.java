@@ -1,6 +1,7 @@
 package com.vanmarsbergen.mars.web;
 
 import com.vanmarsbergen.mars.core.api.ApiStatus;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -16,12 +17,19 @@ public interface WebResponse {
 
   WebResponse setPagination(int currentPage, int totalPages);
 
+  WebResponse setCursorPagination(String previousCursor, String nextCursor);
+
   WebResponse setData(String data);
 
   WebResponse setData(JsonObject data);
 
   WebResponse setData(JsonArray data);
 
+  /**
+   * Set encoded JSON to data, which is written to the response as is.
+   */
+  WebResponse setData(Buffer data);
+
   WebResponse addError(Throwable throwable);
 
   WebResponse addError(ApiStatus errorCode);
@@ -40,6 +48,10 @@ public interface WebResponse {
 
   void end(String data);
 
+  void end(Buffer encodedData, HttpStatus httpStatus);
+
+  void end(Buffer encodedData);
+
   void endNull();
 
   void end(JsonObject singleItem, HttpStatus httpStatus);
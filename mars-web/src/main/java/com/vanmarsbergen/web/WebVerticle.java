@@ -1,11 +1,18 @@
 package com.vanmarsbergen.mars.web;
 
 import com.vanmarsbergen.mars.core.api.ApiStatus;
+import com.vanmarsbergen.mars.core.api.Deadline;
+import com.vanmarsbergen.mars.core.eventbus.RowSet;
+import com.vanmarsbergen.mars.core.eventbus.RowSetCodec;
 import com.vanmarsbergen.mars.web.impl.WebResponseImpl;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
@@ -15,12 +22,15 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.Route;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.handler.CorsHandler;
 import io.vertx.ext.web.handler.JWTAuthHandler;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -29,7 +39,12 @@ import java.util.Objects;
  * @copyright Copyright (c) 2017, Fundd
  */
 public class WebVerticle extends AbstractVerticle {
+  private static final String DEADLINE_KEY = "deadline";
+
   protected Router router;
+  protected TokenRevocation tokenRevocation;
+  protected RateLimitHandler rateLimitHandler;
+  private final Map<String, JsonObject> metricsReports = new HashMap<>();
 
   private void setupHealthCheck(String route) {
     router.route(HttpMethod.GET, String.format("%s/check", route)).handler(routingContext ->
@@ -37,6 +52,46 @@ public class WebVerticle extends AbstractVerticle {
     );
   }
 
+  /**
+   * Serve the latency histograms and pool gauges of the storage layer, enabled with "metrics" in the web config. They
+   * require a valid JWT token like other authenticated routes, unless "metrics_public" is set in the web config.
+   *
+   * Every storage verticle instance keeps its own metrics. With "metrics_publish_interval" in the storage config they
+   * publish them on db.mysql.metrics.report, and the route replies {"instances": [...]} with the reports of the last
+   * "metrics_max_age" milliseconds (default 60000). Without published reports it asks db.mysql.metrics, so it replies
+   * the metrics of one instance only.
+   */
+  private void setupMetrics(String route) {
+    JsonObject web = config().getJsonObject("web");
+    if (!web.getBoolean("metrics", false)) {
+      return;
+    }
+
+    long maxAge = web.getLong("metrics_max_age", 60000L);
+    vertx.eventBus().<JsonObject>consumer("db.mysql.metrics.report", msg -> metricsReports.put(
+      msg.body().getString("instance"), msg.body().copy().put("received", System.currentTimeMillis())
+    ));
+
+    String path = String.format("%s/metrics", route);
+    if (!web.getBoolean("metrics_public", false)) {
+      authenticate(path);
+    }
+    router.route(HttpMethod.GET, path).handler(routingContext -> {
+      long since = System.currentTimeMillis() - maxAge;
+      metricsReports.values().removeIf(report -> report.getLong("received") < since);
+      if (metricsReports.isEmpty()) {
+        send(routingContext, "db.mysql.metrics", null, reply ->
+          dataResultToHttpResponse(routingContext.response(), reply)
+        );
+        return;
+      }
+
+      JsonArray instances = new JsonArray();
+      metricsReports.values().forEach(instances::add);
+      new WebResponseImpl(routingContext.response()).end(new JsonObject().put("instances", instances));
+    });
+  }
+
   private void setupRequestBehavior() {
     router.route()
       .handler(CorsHandler.create("http://dev.escape.dailyco.de:7001|https://escape.dailyco.de")
@@ -57,6 +112,9 @@ public class WebVerticle extends AbstractVerticle {
         .allowedHeader("X-File-Name")
         .allowedHeader("If-Modified-Since").maxAgeSeconds(6000)
       );
+    if (config().getJsonObject("web").containsKey("deadline")) {
+      setDeadline(router.route(), config().getJsonObject("web").getLong("deadline"));
+    }
     router.route().method(HttpMethod.OPTIONS).handler(this::optionsRequest);
     router.route().method(HttpMethod.POST).handler(BodyHandler.create());
     router.route().method(HttpMethod.PATCH).handler(BodyHandler.create());
@@ -70,11 +128,78 @@ public class WebVerticle extends AbstractVerticle {
     routingContext.next();
   }
 
+  /**
+   * Give requests on the route a deadline of the given amount of milliseconds after they came in. Register it before
+   * the handlers of the route; it overrules the default "deadline" of the web config.
+   * Eventbus requests sent with {@link #send(RoutingContext, String, Object, Handler)} carry the deadline, so the
+   * data layer stops working on requests nobody waits for anymore.
+   *
+   * @param route   Route to set the deadline for, e.g. router.route("/projects/*")
+   * @param timeout Time in milliseconds a request may take
+   */
+  protected void setDeadline(Route route, long timeout) {
+    route.handler(ctx -> {
+      ctx.put(DEADLINE_KEY, Deadline.after(timeout));
+      ctx.next();
+    });
+  }
+
+  /**
+   * Delivery options carrying the deadline of the request, see {@link #setDeadline(Route, long)}.
+   */
+  protected DeliveryOptions deliveryOptions(RoutingContext ctx) {
+    Long deadline = ctx.get(DEADLINE_KEY);
+    return Deadline.deliveryOptions(deadline == null ? 0 : deadline);
+  }
+
+  /**
+   * Send a request over the eventbus with the deadline of the HTTP request. When the deadline already passed, the
+   * reply handler fails with a timeout right away.
+   */
+  protected <T> void send(RoutingContext ctx, String address, Object message,
+                          Handler<AsyncResult<Message<T>>> replyHandler) {
+    Long deadline = ctx.get(DEADLINE_KEY);
+    if (deadline != null && Deadline.isExpired(deadline)) {
+      replyHandler.handle(Future.failedFuture(
+        new ReplyException(ReplyFailure.TIMEOUT, "Deadline exceeded before sending to " + address)
+      ));
+      return;
+    }
+
+    vertx.eventBus().send(address, message, deliveryOptions(ctx), replyHandler);
+  }
+
   protected JWTAuthHandler getAuthenticationHandler() {
     String keyStorePassword = config().getJsonObject("authentication").getJsonObject("key_store").getString("password");
     return Authentication.getJWTAuthHandler(vertx, keyStorePassword);
   }
 
+  /**
+   * Require a valid JWT token on the path, which must not be revoked when "revocation" is configured in the
+   * authentication config, see {@link TokenRevocation}. Requests are rate limited by the subject of the token when
+   * "rate_limit" is configured in the web config. A route takes one handler, so every check gets a route of its own;
+   * call this before registering the handlers of the path.
+   *
+   * @param path Path to protect, e.g. "/projects/*"
+   */
+  protected void authenticate(String path) {
+    router.route(path).handler(getAuthenticationHandler());
+    if (tokenRevocation != null) {
+      router.route(path).handler(tokenRevocation.handler());
+    }
+    rateLimit(path);
+  }
+
+  /**
+   * Limit the requests per client on the path when "rate_limit" is configured in the web config, see
+   * {@link RateLimitHandler}. Paths using {@link #authenticate(String)} are limited already.
+   */
+  protected void rateLimit(String path) {
+    if (rateLimitHandler != null) {
+      router.route(path).handler(rateLimitHandler);
+    }
+  }
+
   private void optionsRequest(RoutingContext ctx) {
     new WebResponseImpl(ctx.response())
       .end(HttpStatus.OK);
@@ -96,6 +221,14 @@ public class WebVerticle extends AbstractVerticle {
   }
 
   private void defaultFailedCheck(HttpServerResponse response, AsyncResult<Message<Object>> reply) {
+    if (((ReplyException) reply.cause()).failureType() == ReplyFailure.TIMEOUT ||
+      ((ReplyException) reply.cause()).failureCode() == ApiStatus.STATUS_DB_DEADLINE_EXCEEDED.statusCode()) {
+      new WebResponseImpl(response)
+        .addError(ApiStatus.HTTP_ERROR_DEADLINE_EXCEEDED)
+        .end(HttpStatus.GATEWAY_TIMEOUT);
+      return;
+    }
+
     if (((ReplyException) reply.cause()).failureCode() == ApiStatus.STATUS_DB_NO_RECORDS.statusCode()) {
       new WebResponseImpl(response)
         .addError(ApiStatus.HTTP_MODEL_NOT_FOUND)
@@ -169,6 +302,20 @@ public class WebVerticle extends AbstractVerticle {
       return;
     }
 
+    if (reply.result().body() instanceof RowSet) {
+      RowSet rowSet = (RowSet) reply.result().body();
+
+      if (rowSet.isEmpty()) {
+        new WebResponseImpl(response)
+          .end(HttpStatus.NO_CONTENT);
+        return;
+      }
+
+      new WebResponseImpl(response)
+        .end(rowSet.toJsonArray());
+      return;
+    }
+
     if (reply.result().body() instanceof JsonArray) {
       JsonArray resultArray = (JsonArray) reply.result().body();
 
@@ -196,12 +343,66 @@ public class WebVerticle extends AbstractVerticle {
       .end(resultObject);
   }
 
+  /**
+   * The "cursor" and "limit" query parameters of a request for a page of rows, to send with the request to the data
+   * layer, see {@link #pageResultToHttpResponse(HttpServerResponse, AsyncResult)}.
+   */
+  protected JsonObject cursorPagination(RoutingContext ctx) {
+    JsonObject pagination = new JsonObject().put("cursor", ctx.request().getParam("cursor"));
+
+    String limit = ctx.request().getParam("limit");
+    if (limit != null) {
+      try {
+        pagination.put("limit", Integer.parseInt(limit));
+      } catch (NumberFormatException ignored) {
+        // The default limit is used
+      }
+    }
+
+    return pagination;
+  }
+
+  /**
+   * Respond with the rows of a page found with keyset pagination, and its cursors in the meta data.
+   */
+  protected void pageResultToHttpResponse(HttpServerResponse response, AsyncResult<Message<Object>> reply) {
+    if (reply.failed()) {
+      defaultFailedCheck(response, reply);
+      return;
+    }
+
+    JsonObject page = (JsonObject) reply.result().body();
+    new WebResponseImpl(response)
+      .setCursorPagination(page.getString("previousCursor"), page.getString("nextCursor"))
+      .end(page.getJsonArray("rows", new JsonArray()));
+  }
+
   protected void start(String route) throws Exception {
     this.router = Router.router(vertx);
+    RowSetCodec.register(vertx);
+
+    JsonObject authentication = config().getJsonObject("authentication", new JsonObject());
+    if (authentication.containsKey("revocation")) {
+      this.tokenRevocation = TokenRevocation.create(vertx, authentication.getJsonObject("revocation"));
+    }
+    if (config().getJsonObject("web").containsKey("rate_limit")) {
+      this.rateLimitHandler = RateLimitHandler.create(vertx, config().getJsonObject("web").getJsonObject("rate_limit"));
+    }
 
     setupHealthCheck(route);
     setupRequestBehavior();
+    setupMetrics(route);
 
     vertx.createHttpServer().requestHandler(router::accept).listen(config().getJsonObject("web").getInteger("port"));
   }
+
+  @Override
+  public void stop() throws Exception {
+    if (tokenRevocation != null) {
+      tokenRevocation.close();
+    }
+    if (rateLimitHandler != null) {
+      rateLimitHandler.close();
+    }
+  }
 }
@@ -0,0 +1,90 @@
+package com.vanmarsbergen.mars.web.impl;
+
+/**
+ * Bloom filter of strings: {@link #mightContain(String)} is never false for an added value and true for a value that
+ * wasn't added with about the configured false positive rate, as long as no more than the expected amount of values
+ * is added. It is not synchronized.
+ */
+public class BloomFilter {
+  private final long[] bits;
+  private final int bitCount;
+  private final int hashCount;
+  private int size = 0;
+
+  /**
+   * @param expectedSize      Amount of values the filter is sized for
+   * @param falsePositiveRate Chance that a value that wasn't added is reported, e.g. 0.001
+   */
+  public BloomFilter(int expectedSize, double falsePositiveRate) {
+    int expected = Math.max(1, expectedSize);
+    long optimalBits = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    this.bitCount = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 63, optimalBits));
+    this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expected * Math.log(2)));
+    this.bits = new long[(bitCount + 63) / 64];
+  }
+
+  /**
+   * Add a value, returns false when all its bits were set already, e.g. when it was added before.
+   */
+  public boolean add(String value) {
+    long hash = hash(value);
+    int hash1 = (int) hash;
+    int hash2 = (int) (hash >>> 32);
+    boolean changed = false;
+    for (int i = 0; i < hashCount; i++) {
+      int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitCount;
+      long mask = 1L << bit;
+      changed |= (bits[bit >>> 6] & mask) == 0;
+      bits[bit >>> 6] |= mask;
+    }
+    if (changed) {
+      size++;
+    }
+
+    return changed;
+  }
+
+  public boolean mightContain(String value) {
+    long hash = hash(value);
+    int hash1 = (int) hash;
+    int hash2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashCount; i++) {
+      int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitCount;
+      if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Amount of values added that changed the filter, a value added twice counts once.
+   */
+  public int size() {
+    return size;
+  }
+
+  public int getBitCount() {
+    return bitCount;
+  }
+
+  /**
+   * 64 bit FNV-1a of the characters, mixed with the finalizer of MurmurHash3 so both halves can be used as a hash.
+   */
+  private static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+
+    return hash;
+  }
+}
@@ -0,0 +1,228 @@
+package com.vanmarsbergen.mars.web.impl;
+
+import com.vanmarsbergen.mars.core.api.ApiStatus;
+import com.vanmarsbergen.mars.web.HttpStatus;
+import com.vanmarsbergen.mars.web.RateLimitHandler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+
+public class RateLimitHandlerImpl implements RateLimitHandler {
+  private static final Logger logger = LoggerFactory.getLogger(RateLimitHandlerImpl.class);
+
+  private final Vertx vertx;
+  private final double rate;
+  private final int burst;
+  private final int leaseSize;
+  private final long leaseTtl;
+  private final boolean failOpen;
+  private final boolean trustForwardedFor;
+  private final long cleanupTimer;
+  private final Map<String, Lease> leases = new HashMap<>();
+  private long allowed = 0;
+  private long limited = 0;
+  private long leaseRequests = 0;
+
+  public RateLimitHandlerImpl(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.rate = config.getDouble("rate", 10d);
+    this.burst = config.getInteger("burst", 50);
+    this.leaseSize = Math.min(burst, config.getInteger("lease_size", 10));
+    this.leaseTtl = config.getLong("lease_ttl", 1000L);
+    this.failOpen = config.getBoolean("fail_open", true);
+    this.trustForwardedFor = config.getBoolean("trust_forwarded_for", false);
+
+    this.cleanupTimer = vertx.setPeriodic(Math.max(1000, leaseTtl * 10), id -> removeExpiredLeases());
+  }
+
+  @Override
+  public void handle(RoutingContext ctx) {
+    String key = clientKey(ctx);
+    Lease lease = leases.computeIfAbsent(key, k -> new Lease());
+    long now = System.currentTimeMillis();
+
+    if (lease.retryAt > now) {
+      limit(ctx, lease.retryAt - now);
+      return;
+    }
+
+    if (lease.tokens > 0 && lease.expiresAt > now) {
+      lease.tokens--;
+      allow(ctx);
+      return;
+    }
+
+    lease.waiting.add(ctx);
+    if (!lease.requesting) {
+      requestLease(key, lease);
+    }
+  }
+
+  @Override
+  public JsonObject stats() {
+    return new JsonObject()
+      .put("allowed", allowed)
+      .put("limited", limited)
+      .put("lease_requests", leaseRequests)
+      .put("clients", leases.size());
+  }
+
+  @Override
+  public void close() {
+    vertx.cancelTimer(cleanupTimer);
+    leases.forEach((key, lease) -> giveBack(key, lease));
+    leases.clear();
+  }
+
+  /**
+   * Lease tokens for the requests waiting, the unused tokens of the previous lease are given back with it. The size of
+   * the lease follows the demand of the client on this node: it starts at one token, doubles up to "lease_size" when
+   * the previous lease ran out before it expired and halves when tokens were left. So a client served by many nodes
+   * doesn't have its tokens spread over leases it won't use.
+   *
+   * Requests that came in meanwhile get a next lease, unless the bucket ran out; then the requests without a token are
+   * limited. When Redis can't be reached the requests are allowed with "fail_open" (default), so the rate limit doesn't
+   * take the API down, or else refused with 503.
+   */
+  private void requestLease(String key, Lease lease) {
+    lease.requesting = true;
+    leaseRequests++;
+
+    int returned = lease.tokens;
+    if (returned > 0) {
+      lease.size = Math.max(1, lease.size / 2);
+    } else if (lease.expiresAt > System.currentTimeMillis()) {
+      lease.size = Math.min(leaseSize, lease.size * 2);
+    }
+    lease.tokens = 0;
+
+    int requested = Math.max(lease.size, lease.waiting.size());
+    vertx.eventBus().<JsonObject>send("redis.ratelimit.lease", leaseRequest(key, requested, returned), reply -> {
+      lease.requesting = false;
+      long now = System.currentTimeMillis();
+
+      if (reply.failed()) {
+        logger.warn("Could not lease rate limit tokens of " + key + ": " + reply.cause().getMessage());
+        while (!lease.waiting.isEmpty()) {
+          RoutingContext waiting = lease.waiting.poll();
+          if (failOpen) {
+            allow(waiting);
+          } else {
+            new WebResponseImpl(waiting.response())
+              .addError(ApiStatus.FAILED_HANDLER)
+              .end(HttpStatus.SERVICE_UNAVAILABLE);
+          }
+        }
+        return;
+      }
+
+      int granted = reply.result().body().getInteger("granted", 0);
+      long retryAfter = reply.result().body().getLong("retryAfter", 0L);
+      lease.tokens = granted;
+      lease.expiresAt = now + leaseTtl;
+      if (granted == 0) {
+        lease.retryAt = now + retryAfter;
+      }
+      if (granted < requested) {
+        lease.size = Math.max(1, Math.min(lease.size, granted));
+      }
+
+      while (lease.tokens > 0 && !lease.waiting.isEmpty()) {
+        lease.tokens--;
+        allow(lease.waiting.poll());
+      }
+
+      if (lease.waiting.isEmpty()) {
+        return;
+      }
+
+      if (granted == requested) {
+        requestLease(key, lease);
+        return;
+      }
+
+      while (!lease.waiting.isEmpty()) {
+        limit(lease.waiting.poll(), Math.max(retryAfter, (long) Math.ceil(1000 / rate)));
+      }
+    });
+  }
+
+  private JsonObject leaseRequest(String key, int tokens, int returned) {
+    return new JsonObject()
+      .put("key", key)
+      .put("tokens", tokens)
+      .put("rate", rate)
+      .put("burst", burst)
+      .put("returned", returned);
+  }
+
+  /**
+   * Give the unused tokens of a lease that is dropped back to the bucket.
+   */
+  private void giveBack(String key, Lease lease) {
+    if (lease.tokens > 0) {
+      vertx.eventBus().send("redis.ratelimit.lease", leaseRequest(key, 0, lease.tokens));
+      lease.tokens = 0;
+    }
+  }
+
+  private void allow(RoutingContext ctx) {
+    allowed++;
+    ctx.next();
+  }
+
+  private void limit(RoutingContext ctx, long retryAfter) {
+    limited++;
+    ctx.response().putHeader("Retry-After", Long.toString((retryAfter + 999) / 1000));
+    new WebResponseImpl(ctx.response())
+      .addError(ApiStatus.HTTP_ERROR_TOO_MANY_REQUESTS)
+      .end(HttpStatus.TOO_MANY_REQUESTS);
+  }
+
+  private String clientKey(RoutingContext ctx) {
+    User user = ctx.user();
+    String subject = user == null ? null : user.principal().getString("sub");
+    if (subject != null) {
+      return "sub:" + subject;
+    }
+
+    String forwardedFor = trustForwardedFor ? ctx.request().getHeader("X-Forwarded-For") : null;
+    if (forwardedFor != null && !forwardedFor.trim().isEmpty()) {
+      // The load balancer appends the address it got the request from, the addresses before it come from the client
+      return "ip:" + forwardedFor.substring(forwardedFor.lastIndexOf(',') + 1).trim();
+    }
+
+    return "ip:" + ctx.request().remoteAddress().host();
+  }
+
+  private void removeExpiredLeases() {
+    long now = System.currentTimeMillis();
+    Iterator<Map.Entry<String, Lease>> iterator = leases.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Lease> entry = iterator.next();
+      Lease lease = entry.getValue();
+      if (!lease.requesting && lease.waiting.isEmpty() && lease.expiresAt < now && lease.retryAt < now) {
+        giveBack(entry.getKey(), lease);
+        iterator.remove();
+      }
+    }
+  }
+
+  private static class Lease {
+    private int tokens = 0;
+    private int size = 1;
+    private long expiresAt = 0;
+    private long retryAt = 0;
+    private boolean requesting = false;
+    private final Queue<RoutingContext> waiting = new ArrayDeque<>();
+  }
+}
@@ -0,0 +1,181 @@
+package com.vanmarsbergen.mars.web.impl;
+
+import com.vanmarsbergen.mars.core.api.ApiStatus;
+import com.vanmarsbergen.mars.core.eventbus.RevocationAddresses;
+import com.vanmarsbergen.mars.web.HttpStatus;
+import com.vanmarsbergen.mars.web.TokenRevocation;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TokenRevocationImpl implements TokenRevocation {
+  private static final Logger logger = LoggerFactory.getLogger(TokenRevocationImpl.class);
+
+  private final Vertx vertx;
+  private final int expectedTokens;
+  private final double falsePositiveRate;
+  private final long syncTimer;
+  private final MessageConsumer<JsonObject> revokedConsumer;
+  private BloomFilter filter;
+  private boolean synced = false;
+  private List<String> revokedDuringSync;
+  private long checks = 0;
+  private long redisChecks = 0;
+  private long revokedHits = 0;
+  private long syncs = 0;
+
+  public TokenRevocationImpl(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.expectedTokens = config.getInteger("expected_tokens", 100000);
+    this.falsePositiveRate = config.getDouble("false_positive_rate", 0.001);
+    this.filter = new BloomFilter(expectedTokens, falsePositiveRate);
+
+    this.revokedConsumer = vertx.eventBus().consumer(RevocationAddresses.REVOKED,
+      msg -> added(msg.body().getString("tokenId")));
+    sync();
+    this.syncTimer = vertx.setPeriodic(config.getLong("sync_interval", 60000L), id -> sync());
+  }
+
+  @Override
+  public void revoke(String tokenId, long expiresAt, Handler<AsyncResult<Void>> handler) {
+    JsonObject message = new JsonObject().put("tokenId", tokenId).put("expiresAt", expiresAt);
+    vertx.eventBus().send(RevocationAddresses.REVOKE, message, reply -> {
+      if (reply.failed()) {
+        handler.handle(Future.failedFuture(reply.cause()));
+        return;
+      }
+
+      // Added right away so this node refuses the token before the published revocation arrives
+      added(tokenId);
+      handler.handle(Future.succeededFuture());
+    });
+  }
+
+  @Override
+  public void isRevoked(String tokenId, Handler<AsyncResult<Boolean>> handler) {
+    checks++;
+    if (synced && !filter.mightContain(tokenId)) {
+      handler.handle(Future.succeededFuture(false));
+      return;
+    }
+
+    redisChecks++;
+    vertx.eventBus().<Boolean>send(RevocationAddresses.IS_REVOKED, new JsonObject().put("tokenId", tokenId), reply -> {
+      if (reply.failed()) {
+        handler.handle(Future.failedFuture(reply.cause()));
+        return;
+      }
+
+      if (reply.result().body()) {
+        revokedHits++;
+      }
+      handler.handle(Future.succeededFuture(reply.result().body()));
+    });
+  }
+
+  @Override
+  public Handler<RoutingContext> handler() {
+    return ctx -> {
+      User user = ctx.user();
+      if (user == null) {
+        ctx.next();
+        return;
+      }
+
+      // A token without an id can't be revoked, so it is refused rather than let through unchecked
+      String tokenId = user.principal().getString("jti");
+      if (tokenId == null) {
+        new WebResponseImpl(ctx.response())
+          .addError(ApiStatus.REDIS_JWTTOKEN_NO_ID)
+          .end(HttpStatus.UNAUTHORIZED);
+        return;
+      }
+
+      isRevoked(tokenId, res -> {
+        if (res.failed()) {
+          logger.warn("Could not check the revocation of token " + tokenId + ": " + res.cause().getMessage());
+          new WebResponseImpl(ctx.response())
+            .addError(ApiStatus.REDIS_JWTTOKEN_GENERAL)
+            .end(HttpStatus.SERVICE_UNAVAILABLE);
+          return;
+        }
+
+        if (res.result()) {
+          new WebResponseImpl(ctx.response())
+            .addError(ApiStatus.REDIS_JWTTOKEN_REVOKED)
+            .end(HttpStatus.UNAUTHORIZED);
+          return;
+        }
+
+        ctx.next();
+      });
+    };
+  }
+
+  @Override
+  public JsonObject stats() {
+    return new JsonObject()
+      .put("synced", synced)
+      .put("syncs", syncs)
+      .put("filter_size", filter.size())
+      .put("filter_bits", filter.getBitCount())
+      .put("checks", checks)
+      .put("redis_checks", redisChecks)
+      .put("revoked", revokedHits);
+  }
+
+  @Override
+  public void close() {
+    vertx.cancelTimer(syncTimer);
+    revokedConsumer.unregister();
+  }
+
+  /**
+   * Rebuild the filter from all revoked tokens, sized for at least twice the revocations so the false positive rate
+   * stays low when there are more than expected. Tokens revoked while the list was fetched are added afterwards.
+   */
+  private void sync() {
+    if (revokedDuringSync != null) {
+      return;
+    }
+
+    revokedDuringSync = new ArrayList<>();
+    vertx.eventBus().<JsonArray>send(RevocationAddresses.REVOCATIONS, null, reply -> {
+      List<String> revokedMeanwhile = revokedDuringSync;
+      revokedDuringSync = null;
+      if (reply.failed()) {
+        logger.warn("Could not sync the revoked tokens: " + reply.cause().getMessage());
+        return;
+      }
+
+      JsonArray tokenIds = reply.result().body();
+      BloomFilter rebuilt = new BloomFilter(Math.max(expectedTokens, tokenIds.size() * 2), falsePositiveRate);
+      for (int i = 0; i < tokenIds.size(); i++) {
+        rebuilt.add(tokenIds.getString(i));
+      }
+      revokedMeanwhile.forEach(rebuilt::add);
+
+      this.filter = rebuilt;
+      this.synced = true;
+      this.syncs++;
+    });
+  }
+
+  private void added(String tokenId) {
+    filter.add(tokenId);
+    if (revokedDuringSync != null) {
+      revokedDuringSync.add(tokenId);
+    }
+  }
+}
@@ -8,6 +8,7 @@ import com.vanmarsbergen.mars.core.api.ApiStatus;
 import com.vanmarsbergen.mars.web.HttpStatus;
 import com.vanmarsbergen.mars.web.WebResponse;
 import com.vanmarsbergen.mars.web.exception.WebResponseException;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.ReplyException;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerResponse;
@@ -16,6 +17,7 @@ import io.vertx.core.json.JsonObject;
 
 public class WebResponseImpl implements WebResponse {
   private JsonObject data = new JsonObject();
+  private Buffer encodedData;
   private JsonObject metaData = new JsonObject();
   private JsonArray errors = new JsonArray();
   private HttpServerResponse httpServerResponse;
@@ -74,6 +76,23 @@ public class WebResponseImpl implements WebResponse {
     return this;
   }
 
+  /**
+   * Sets cursor pagination to the meta data of the to be returned object. Cursors are opaque strings built from the
+   * last row of a page, so no page numbers or total page count are needed.
+   *
+   * @param previousCursor Cursor to the previous page, null on the first page.
+   * @param nextCursor     Cursor to the next page, null on the last page.
+   */
+  public WebResponse setCursorPagination(String previousCursor, String nextCursor) {
+    this.metaData
+      .put("previous-cursor", previousCursor)
+      .put("next-cursor", nextCursor)
+      .put("is-first-page", previousCursor == null)
+      .put("is-last-page", nextCursor == null);
+
+    return this;
+  }
+
   /**
    * Set JsonObject to data which will return as a Json object
    *
@@ -81,6 +100,7 @@ public class WebResponseImpl implements WebResponse {
    */
   public WebResponse setData(String data) {
     this.data = new JsonObject().put("data", data);
+    this.encodedData = null;
     return this;
   }
 
@@ -91,6 +111,7 @@ public class WebResponseImpl implements WebResponse {
    */
   public WebResponse setData(JsonObject data) {
     this.data = new JsonObject().put("data", data);
+    this.encodedData = null;
     return this;
   }
 
@@ -101,6 +122,19 @@ public class WebResponseImpl implements WebResponse {
    */
   public WebResponse setData(JsonArray data) {
     this.data = new JsonObject().put("data", data);
+    this.encodedData = null;
+    return this;
+  }
+
+  /**
+   * Set encoded JSON to data, like a model written by the ModelSerializer of mars-data. It is written to the response
+   * as is, without decoding it.
+   *
+   * @param data
+   */
+  public WebResponse setData(Buffer data) {
+    this.data = new JsonObject();
+    this.encodedData = data;
     return this;
   }
 
@@ -180,14 +214,27 @@ public class WebResponseImpl implements WebResponse {
 
   @Override
   public String toString() {
+    return toBuffer().toString();
+  }
+
+  private Buffer toBuffer() {
     if (
       httpStatus.equals(HttpStatus.NO_CONTENT) ||
         httpStatus.equals(HttpStatus.MOVED_TEMPORARY)
       ) {
-      return "";
+      return Buffer.buffer();
+    }
+
+    if (encodedData == null || !errors.isEmpty()) {
+      return Buffer.buffer(toJsonObject().encode());
+    }
+
+    Buffer response = Buffer.buffer(encodedData.length() + 16).appendString("{");
+    if (!metaData.isEmpty()) {
+      response.appendString("\"meta\":").appendString(metaData.encode()).appendString(",");
     }
 
-    return toJsonObject().encode();
+    return response.appendString("\"data\":").appendBuffer(encodedData).appendString("}");
   }
 
   public void end(String data, HttpStatus httpStatus) {
@@ -201,6 +248,17 @@ public class WebResponseImpl implements WebResponse {
     end();
   }
 
+  public void end(Buffer encodedData, HttpStatus httpStatus) {
+    setData(encodedData);
+    setStatus(httpStatus);
+    end();
+  }
+
+  public void end(Buffer encodedData) {
+    setData(encodedData);
+    end();
+  }
+
   public void endNull() {
     setStatus(HttpStatus.NO_CONTENT);
     end();
@@ -247,6 +305,6 @@ public class WebResponseImpl implements WebResponse {
       .putHeader(HttpHeaders.CONTENT_TYPE, getContentType())
       .setStatusCode(httpStatus.code())
       .setStatusMessage(httpStatus.statusPhrase())
-      .end(toString());
+      .end(toBuffer());
   }
 }
@@ -0,0 +1,245 @@
+package com.vanmarsbergen.mars.web;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The {@link RateLimitHandler} in front of a route, with leases taken from a stand-in of the RateLimitVerticle that
+ * holds a fixed amount of tokens and never refills. Nodes are servers with a handler each, sharing the stand-in.
+ */
+public class RateLimitHandlerTest {
+  private static final JsonObject CONFIG = new JsonObject()
+    .put("rate", 2d)
+    .put("burst", 20)
+    .put("lease_size", 5)
+    .put("lease_ttl", 60000L);
+
+  private final List<Integer> leases = Collections.synchronizedList(new ArrayList<>());
+  private final List<Integer> returns = Collections.synchronizedList(new ArrayList<>());
+
+  private Vertx vertx;
+  private Context context;
+  private HttpClient client;
+  private RateLimitHandler handler;
+  private int port;
+  private volatile int tokens;
+  private boolean failing = false;
+
+  @Before
+  public void setUp() throws Exception {
+    vertx = Vertx.vertx();
+    context = vertx.getOrCreateContext();
+    client = vertx.createHttpClient();
+
+    vertx.eventBus().<JsonObject>consumer("redis.ratelimit.lease", msg -> {
+      if (failing) {
+        msg.fail(1, "Redis is down");
+        return;
+      }
+
+      int returned = msg.body().getInteger("returned", 0);
+      if (returned > 0) {
+        tokens += returned;
+        returns.add(returned);
+      }
+
+      int requested = msg.body().getInteger("tokens");
+      if (requested == 0) {
+        msg.reply(new JsonObject().put("granted", 0).put("retryAfter", 0L));
+        return;
+      }
+      int granted = Math.min(requested, tokens);
+      tokens -= granted;
+      leases.add(requested);
+      msg.reply(new JsonObject().put("granted", granted).put("retryAfter", granted == 0 ? 1500L : 0L));
+    });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    vertx.close(res -> closed.complete(null));
+    closed.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void leasesTokensInGrowingBatches() throws Exception {
+    tokens = 17;
+    listen(CONFIG);
+
+    for (int i = 0; i < 17; i++) {
+      assertEquals("Request " + i, 200, request());
+    }
+    assertEquals("Leases double up to the lease size", Arrays.asList(1, 2, 4, 5, 5), leases);
+
+    assertEquals(429, request());
+    assertEquals("A lease was refused", 6, leases.size());
+    assertEquals(429, request());
+    assertEquals("Limited until the retry time without asking again", 6, leases.size());
+
+    JsonObject stats = onContext(handler::stats);
+    assertEquals(17L, (long) stats.getLong("allowed"));
+    assertEquals(2L, (long) stats.getLong("limited"));
+    assertEquals(6L, (long) stats.getLong("lease_requests"));
+  }
+
+  @Test
+  public void nodesShareTheBucket() throws Exception {
+    tokens = 5;
+    int first = listen(CONFIG);
+    int second = listen(CONFIG);
+
+    assertEquals(200, request(first));
+    assertEquals("The other node isn't left without tokens", 200, request(second));
+    assertEquals(200, request(first));
+    assertEquals(200, request(second));
+    assertEquals(200, request(first));
+    assertEquals("All tokens of the bucket were used", 429, request(second));
+  }
+
+  @Test
+  public void unusedTokensAreGivenBack() throws Exception {
+    tokens = 5;
+    JsonObject config = CONFIG.copy().put("lease_ttl", 100L);
+    int first = listen(config);
+    int second = listen(config);
+
+    assertEquals(200, request(first));
+    assertEquals(200, request(first));
+    Thread.sleep(150);
+
+    assertEquals("Gives back the token left of its lease of two", 200, request(first));
+    assertEquals(Collections.singletonList(1), returns);
+    assertEquals(200, request(second));
+    assertEquals(200, request(second));
+    assertEquals(429, request(second));
+  }
+
+  @Test
+  public void droppedLeasesAreGivenBack() throws Exception {
+    tokens = 3;
+    listen(CONFIG);
+
+    assertEquals(200, request());
+    assertEquals(200, request());
+    onContext(() -> {
+      handler.close();
+      return null;
+    });
+
+    for (int i = 0; i < 100 && returns.isEmpty(); i++) {
+      Thread.sleep(10);
+    }
+    assertEquals("The lease of two had one token left", Collections.singletonList(1), returns);
+  }
+
+  @Test
+  public void limitsByTheForwardedAddressWhenTrusted() throws Exception {
+    tokens = 2;
+    listen(CONFIG.copy().put("trust_forwarded_for", true));
+
+    assertEquals(200, request(port, "10.0.0.1, 192.168.0.1"));
+    assertEquals(200, request(port, "10.0.0.1, 192.168.0.2"));
+    assertEquals("Clients behind the same load balancer", 2L, (long) onContext(handler::stats).getLong("clients"));
+  }
+
+  @Test
+  public void retryAfterIsRoundedUpToSeconds() throws Exception {
+    tokens = 0;
+    listen(CONFIG);
+
+    CompletableFuture<String> retryAfter = new CompletableFuture<>();
+    client.getNow(port, "localhost", "/", response -> retryAfter.complete(response.getHeader("Retry-After")));
+    assertEquals("2", retryAfter.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void allowsRequestsWhenNoLeaseCanBeTaken() throws Exception {
+    failing = true;
+    listen(CONFIG);
+
+    assertEquals(200, request());
+    assertEquals(200, request());
+  }
+
+  @Test
+  public void refusesRequestsWhenNoLeaseCanBeTakenAndNotFailingOpen() throws Exception {
+    failing = true;
+    listen(CONFIG.copy().put("fail_open", false));
+
+    assertEquals(503, request());
+  }
+
+  private int listen(JsonObject config) throws Exception {
+    CompletableFuture<HttpServer> listening = new CompletableFuture<>();
+    context.runOnContext(v -> {
+      handler = RateLimitHandler.create(vertx, config);
+      Router router = Router.router(vertx);
+      router.route().handler(handler);
+      router.route().handler(ctx -> ctx.response().end("ok"));
+      vertx.createHttpServer().requestHandler(router::accept).listen(0, "localhost", res -> {
+        if (res.succeeded()) {
+          listening.complete(res.result());
+        } else {
+          listening.completeExceptionally(res.cause());
+        }
+      });
+    });
+
+    port = listening.get(10, TimeUnit.SECONDS).actualPort();
+    return port;
+  }
+
+  private int request() throws Exception {
+    return request(port);
+  }
+
+  private int request(int port) throws Exception {
+    return request(port, null);
+  }
+
+  private int request(int port, String forwardedFor) throws Exception {
+    CompletableFuture<Integer> status = new CompletableFuture<>();
+    HttpClientRequest request = client.get(port, "localhost", "/", response -> status.complete(response.statusCode()));
+    if (forwardedFor != null) {
+      request.putHeader("X-Forwarded-For", forwardedFor);
+    }
+    request.end();
+
+    return status.get(10, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Like the ContextRunner of the mars-data tests, which this module can't use.
+   */
+  private <T> T onContext(Supplier<T> supplier) throws Exception {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    context.runOnContext(v -> {
+      try {
+        future.complete(supplier.get());
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    });
+
+    return future.get(10, TimeUnit.SECONDS);
+  }
+}